@@ -19,11 +19,13 @@
 package org.apache.sling.feature.extension.apiregions;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import jakarta.json.JsonArray;
 import org.apache.sling.feature.ArtifactId;
@@ -55,11 +57,9 @@ public class APIRegionMergeHandler implements MergeHandler {
 
             final ApiRegions targetRegions;
             if (targetEx != null) {
-                targetRegions = ApiRegions.parse((JsonArray) targetEx.getJSONStructure());
+                final ApiRegions merged = DeferredJsonExtension.getModel(targetEx, ApiRegions.class);
+                targetRegions = merged != null ? merged : ApiRegions.parse((JsonArray) targetEx.getJSONStructure());
             } else {
-                targetEx = new Extension(sourceEx.getType(), sourceEx.getName(), sourceEx.getState());
-                target.getExtensions().add(targetEx);
-
                 targetRegions = new ApiRegions();
             }
 
@@ -118,13 +118,54 @@ public class APIRegionMergeHandler implements MergeHandler {
                 }
             }
 
-            targetEx.setJSONStructure(targetRegions.toJSONArray());
+            // the regions are written to the extension once its JSON is read
+            DeferredJsonExtension.setModel(
+                    target,
+                    targetEx,
+                    ApiRegions.EXTENSION_NAME,
+                    sourceEx.getState(),
+                    targetRegions,
+                    ApiRegions::toJSONArray);
 
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Merge the api regions of several features at once. The result is the same as
+     * merging the features one after the other with this handler into a feature
+     * without api regions, but the regions are only ordered and built once.
+     *
+     * @param sources The api regions by feature id, in the order of merging
+     * @return The merged api regions
+     */
+    public static ApiRegions merge(final Map<ArtifactId, ApiRegions> sources) {
+        return merge(sources, null);
+    }
+
+    /**
+     * Merge the api regions of several features at once, combining the api regions
+     * of adjacent features as a balanced tree. The result is the same as
+     * {@link #merge(Map)}.
+     *
+     * @param sources The api regions by feature id, in the order of merging
+     * @param pool The pool to use, if {@code null} the sources are merged in the calling thread
+     * @return The merged api regions
+     */
+    public static ApiRegions merge(final Map<ArtifactId, ApiRegions> sources, final ForkJoinPool pool) {
+        final ApiRegionsMerger merger = MergeTree.merge(
+                new ArrayList<>(sources.entrySet()),
+                (index, entry) -> {
+                    final ApiRegionsMerger leaf = new ApiRegionsMerger();
+                    leaf.add(entry.getKey(), entry.getValue());
+                    return leaf;
+                },
+                ApiRegionsMerger::merge,
+                pool);
+        return merger == null ? new ApiRegions() : merger.build();
+    }
+
     private String getNextFound(int startPos, Map<String, Integer> regionPos, List<ApiRegion> sourceRegions) {
         for (int i = startPos; i >= 0; i--) {
             String name = sourceRegions.get(i).getName();
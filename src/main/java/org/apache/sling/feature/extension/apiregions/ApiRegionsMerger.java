@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.extension.apiregions.api.ApiExport;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegion;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
+
+/**
+ * Merges the api regions of several features with the same result as
+ * {@link APIRegionMergeHandler} merging them one after the other into a
+ * feature without api regions.
+ * The exports, feature origins and properties of each region are collected
+ * through hash indexes. The region order is calculated once from the region
+ * names of all sources when the result is built.
+ * Merging two mergers is associative, mergers of adjacent sources can therefore
+ * be combined in any grouping, see {@link MergeTree}.
+ */
+final class ApiRegionsMerger {
+
+    /** The region names of each source, in the order of merging */
+    private final List<List<String>> regionOrders = new ArrayList<>();
+
+    /** The merged regions by name */
+    private final Map<String, MergedRegion> regions = new HashMap<>();
+
+    private static final class MergedRegion {
+
+        final Map<String, ApiExport> exports = new LinkedHashMap<>();
+
+        final LinkedHashSet<ArtifactId> origins = new LinkedHashSet<>();
+
+        final Map<String, String> properties;
+
+        MergedRegion(final Map<String, String> properties) {
+            this.properties = new LinkedHashMap<>(properties);
+        }
+    }
+
+    /**
+     * Add the api regions of a source feature
+     *
+     * @param sourceId The id of the source feature
+     * @param source The api regions of the source feature
+     */
+    void add(final ArtifactId sourceId, final ApiRegions source) {
+        final List<String> names = new ArrayList<>();
+        for (final ApiRegion region : source.listRegions()) {
+            names.add(region.getName());
+
+            MergedRegion merged = this.regions.get(region.getName());
+            if (merged == null) {
+                merged = new MergedRegion(region.getProperties());
+                this.regions.put(region.getName(), merged);
+            }
+            for (final ApiExport export : region.listExports()) {
+                merged.exports.putIfAbsent(export.getName(), export);
+            }
+            final ArtifactId[] origins = region.getFeatureOrigins();
+            if (origins.length == 0) {
+                merged.origins.add(sourceId);
+            } else {
+                merged.origins.addAll(Arrays.asList(origins));
+            }
+        }
+        this.regionOrders.add(names);
+    }
+
+    /**
+     * Add all sources of another merger. The sources of the other merger
+     * must follow the sources of this merger.
+     *
+     * @param other The other merger, must not be used afterwards
+     * @return This merger
+     */
+    ApiRegionsMerger merge(final ApiRegionsMerger other) {
+        this.regionOrders.addAll(other.regionOrders);
+        for (final Map.Entry<String, MergedRegion> entry : other.regions.entrySet()) {
+            final MergedRegion merged = this.regions.putIfAbsent(entry.getKey(), entry.getValue());
+            if (merged != null) {
+                for (final ApiExport export : entry.getValue().exports.values()) {
+                    merged.exports.putIfAbsent(export.getName(), export);
+                }
+                merged.origins.addAll(entry.getValue().origins);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Build the merged api regions
+     *
+     * @return The api regions
+     */
+    ApiRegions build() {
+        final ApiRegions result = new ApiRegions();
+        for (final String name : calculateRegionOrder()) {
+            final MergedRegion merged = this.regions.get(name);
+            final ApiRegion region = new ApiRegion(name);
+            for (final ApiExport export : merged.exports.values()) {
+                region.add(export);
+            }
+            region.setFeatureOrigins(merged.origins.toArray(new ArtifactId[0]));
+            region.getProperties().putAll(merged.properties);
+            result.add(region);
+        }
+        return result;
+    }
+
+    /**
+     * Calculate the region order, applying the rules of the merge handler to the names only:
+     * a region not yet known is inserted after the preceding known region of its source,
+     * regions after the last known region are appended at the end.
+     *
+     * @return The region names
+     */
+    private List<String> calculateRegionOrder() {
+        final List<String> result = new ArrayList<>();
+        final Map<String, Integer> positions = new HashMap<>();
+        for (final List<String> names : this.regionOrders) {
+            int insertPosition = result.size();
+            boolean added = false;
+            for (int i = names.size() - 1; i >= 0; i--) {
+                final String name = names.get(i);
+                if (positions.containsKey(name)) {
+                    // regions are inserted back to front, continue with the preceding known region
+                    insertPosition = getPrecedingPosition(names, i - 1, positions);
+                } else {
+                    result.add(insertPosition, name);
+                    added = true;
+                }
+            }
+            if (added) {
+                positions.clear();
+                for (int i = 0; i < result.size(); i++) {
+                    positions.put(result.get(i), i);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int getPrecedingPosition(
+            final List<String> names, final int startPos, final Map<String, Integer> positions) {
+        for (int i = startPos; i >= 0; i--) {
+            final Integer pos = positions.get(names.get(i));
+            if (pos != null) {
+                return pos + 1;
+            }
+        }
+        return 0;
+    }
+}
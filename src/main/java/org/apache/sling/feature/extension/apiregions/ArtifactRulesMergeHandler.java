@@ -18,6 +18,9 @@
  */
 package org.apache.sling.feature.extension.apiregions;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.sling.feature.Extension;
 import org.apache.sling.feature.Feature;
 import org.apache.sling.feature.builder.HandlerContext;
@@ -53,16 +56,37 @@ public class ArtifactRulesMergeHandler implements MergeHandler {
             // mode merging
             if (context.isInitialMerge()) {
                 targetRules.setMode(sourceRules.getMode());
-            } else {
-                if (targetRules.getMode().ordinal() > sourceRules.getMode().ordinal()) {
-                    targetRules.setMode(sourceRules.getMode());
-                }
             }
-
-            // merge - just add
-            targetRules.getBundleVersionRules().addAll(sourceRules.getBundleVersionRules());
+            merge(targetRules, sourceRules);
 
             ArtifactRules.setArtifactRules(targetFeature, targetRules);
         }
     }
+
+    /**
+     * Merge the artifact rules of several features at once, combining the rules of
+     * adjacent features as a balanced tree. The result is the same as merging the
+     * features one after the other with this handler into a feature without
+     * artifact rules.
+     * The rules of the first feature are used for the result, the passed rules
+     * must not be used afterwards.
+     *
+     * @param sources The artifact rules in the order of merging
+     * @param pool The pool to use, if {@code null} the sources are merged in the calling thread
+     * @return The merged artifact rules or {@code null} if the list is empty
+     */
+    public static ArtifactRules merge(final List<ArtifactRules> sources, final ForkJoinPool pool) {
+        return MergeTree.merge(sources, (index, rules) -> rules, ArtifactRulesMergeHandler::merge, pool);
+    }
+
+    /**
+     * Merge the mode and add the rules of the source
+     */
+    private static ArtifactRules merge(final ArtifactRules targetRules, final ArtifactRules sourceRules) {
+        if (targetRules.getMode().ordinal() > sourceRules.getMode().ordinal()) {
+            targetRules.setMode(sourceRules.getMode());
+        }
+        targetRules.getBundleVersionRules().addAll(sourceRules.getBundleVersionRules());
+        return targetRules;
+    }
 }
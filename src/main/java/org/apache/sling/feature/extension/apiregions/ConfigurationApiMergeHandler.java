@@ -18,12 +18,18 @@
  */
 package org.apache.sling.feature.extension.apiregions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionState;
 import org.apache.sling.feature.Feature;
 import org.apache.sling.feature.builder.HandlerContext;
 import org.apache.sling.feature.builder.MergeHandler;
@@ -44,6 +50,20 @@ import org.apache.sling.feature.extension.apiregions.api.config.Region;
  */
 public class ConfigurationApiMergeHandler implements MergeHandler {
 
+    /** The merged configuration api of a target extension */
+    private static final class MergedApi {
+
+        final ConfigurationApi api;
+
+        /** Whether none of the kept additions has a configuration description */
+        final boolean additionsProcessed;
+
+        MergedApi(final ConfigurationApi api, final boolean additionsProcessed) {
+            this.api = api;
+            this.additionsProcessed = additionsProcessed;
+        }
+    }
+
     @Override
     public boolean canMerge(final Extension extension) {
         return ConfigurationApi.EXTENSION_NAME.equals(extension.getName());
@@ -62,10 +82,12 @@ public class ConfigurationApiMergeHandler implements MergeHandler {
             final ConfigurationApi sourceApi = ConfigurationApi.getConfigurationApi(sourceExtension);
             sourceApi.getFeatureToRegionCache().put(sourceFeature.getId(), sourceApi.detectRegion());
 
-            ConfigurationApi.setConfigurationApi(targetFeature, sourceApi);
+            setConfigurationApi(targetFeature, sourceApi, false);
         } else {
             final ConfigurationApi sourceApi = ConfigurationApi.getConfigurationApi(sourceExtension);
-            final ConfigurationApi targetApi = ConfigurationApi.getConfigurationApi(targetExtension);
+            final MergedApi merged = DeferredJsonExtension.getModel(targetExtension, MergedApi.class);
+            final ConfigurationApi targetApi =
+                    merged != null ? merged.api : ConfigurationApi.getConfigurationApi(targetExtension);
 
             // region merging
             if (context.isInitialMerge()) {
@@ -118,18 +140,97 @@ public class ConfigurationApiMergeHandler implements MergeHandler {
             }
 
             // check for additions
-            processAdditions(targetApi, targetApi, false);
+            if (merged != null && merged.additionsProcessed) {
+                // only the descriptions of the source can match a kept addition
+                processKeptAdditions(targetApi, sourceApi);
+            } else {
+                processAdditions(targetApi, targetApi, false);
+            }
             processAdditions(targetApi, sourceApi, true);
 
-            ConfigurationApi.setConfigurationApi(targetFeature, targetApi);
+            setConfigurationApi(targetFeature, targetApi, true);
         }
     }
 
+    /**
+     * Set the configuration api as an extension of the target feature. The api is
+     * kept for the next merge into the same extension and only written to JSON
+     * once the JSON of the extension is read.
+     */
+    private static void setConfigurationApi(
+            final Feature targetFeature, final ConfigurationApi api, final boolean additionsProcessed) {
+        DeferredJsonExtension.setModel(
+                targetFeature,
+                targetFeature.getExtensions().getByName(ConfigurationApi.EXTENSION_NAME),
+                ConfigurationApi.EXTENSION_NAME,
+                ExtensionState.OPTIONAL,
+                new MergedApi(api, additionsProcessed),
+                merged -> merged.api.toJSONObject());
+    }
+
+    /**
+     * Apply the kept additions of the target to the descriptions added by the source
+     */
+    private static void processKeptAdditions(final ConfigurationApi targetApi, final ConfigurationApi sourceApi) {
+        final Map<PropertyDescription, Set<String>> includes = new IdentityHashMap<>();
+        if (!targetApi.getConfigurationDescriptionAdditions().isEmpty()) {
+            for (final String pid : sourceApi.getConfigurationDescriptions().keySet()) {
+                final ConfigurationDescriptionAddition addition =
+                        targetApi.getConfigurationDescriptionAdditions().remove(pid);
+                if (addition != null) {
+                    processAddition(
+                            "configuration ".concat(pid),
+                            targetApi.getConfigurationDescriptions().get(pid),
+                            addition,
+                            includes);
+                }
+            }
+        }
+        if (!targetApi.getFactoryConfigurationDescriptionAdditions().isEmpty()) {
+            for (final String pid :
+                    sourceApi.getFactoryConfigurationDescriptions().keySet()) {
+                final FactoryConfigurationDescriptionAddition addition =
+                        targetApi.getFactoryConfigurationDescriptionAdditions().remove(pid);
+                if (addition != null) {
+                    processAddition(
+                            "factory configuration ".concat(pid),
+                            targetApi.getFactoryConfigurationDescriptions().get(pid),
+                            addition,
+                            includes);
+                }
+            }
+        }
+        setIncludes(includes);
+    }
+
+    /**
+     * Merge the configuration api of several features at once, combining the
+     * configuration api of adjacent features as a balanced tree. The result is the
+     * same as merging the features one after the other with this handler into a
+     * feature without configuration api.
+     * The configuration api of the first feature is used for the result, the passed
+     * configuration apis must not be used afterwards.
+     *
+     * @param sources The configuration api by feature id, in the order of merging
+     * @param pool The pool to use, if {@code null} the sources are merged in the calling thread
+     * @return The merged configuration api or {@code null} if the map is empty
+     * @throws IllegalStateException If the configuration apis can't be merged
+     */
+    public static ConfigurationApi merge(final Map<ArtifactId, ConfigurationApi> sources, final ForkJoinPool pool) {
+        final ConfigurationApiMerger merger = MergeTree.merge(
+                new ArrayList<>(sources.entrySet()),
+                (index, entry) -> new ConfigurationApiMerger(index, entry.getKey(), entry.getValue()),
+                ConfigurationApiMerger::merge,
+                pool);
+        return merger == null ? null : merger.build();
+    }
+
     /**
      * Process/add the additions from another configuration api
      */
     private void processAdditions(
             final ConfigurationApi targetApi, final ConfigurationApi sourceApi, final boolean keep) {
+        final Map<PropertyDescription, Set<String>> includes = new IdentityHashMap<>();
         // configuration additions
         final Iterator<Map.Entry<String, ConfigurationDescriptionAddition>> itc =
                 sourceApi.getConfigurationDescriptionAdditions().entrySet().iterator();
@@ -145,7 +246,7 @@ public class ConfigurationApiMergeHandler implements MergeHandler {
                     throw new IllegalStateException("Duplicate configuration description addition " + entry.getKey());
                 }
             } else if (cd != null) {
-                processAddition("configuration ".concat(entry.getKey()), cd, entry.getValue());
+                processAddition("configuration ".concat(entry.getKey()), cd, entry.getValue(), includes);
                 if (!keep) {
                     itc.remove();
                 }
@@ -169,16 +270,25 @@ public class ConfigurationApiMergeHandler implements MergeHandler {
                             "Duplicate factory configuration description addition " + entry.getKey());
                 }
             } else if (cd != null) {
-                processAddition("factory configuration ".concat(entry.getKey()), cd, entry.getValue());
+                processAddition("factory configuration ".concat(entry.getKey()), cd, entry.getValue(), includes);
                 if (!keep) {
                     itf.remove();
                 }
             }
         }
+        setIncludes(includes);
     }
 
-    private void processAddition(
-            final String descId, final ConfigurableEntity entity, final ConfigurableEntityAddition addition) {
+    /**
+     * Apply an addition to a description. The includes of the properties are
+     * collected per property and only set by {@link #setIncludes(Map)}, several
+     * additions to the same property therefore set the includes once.
+     */
+    static void processAddition(
+            final String descId,
+            final ConfigurableEntity entity,
+            final ConfigurableEntityAddition addition,
+            final Map<PropertyDescription, Set<String>> includes) {
         for (final Map.Entry<String, PropertyDescriptionAddition> entry :
                 addition.getPropertyDescriptionAdditions().entrySet()) {
             final String propName = entry.getKey();
@@ -187,16 +297,14 @@ public class ConfigurationApiMergeHandler implements MergeHandler {
                 throw new IllegalStateException("Property named '" + propName + "' is not defined in " + descId);
             }
             if (entry.getValue().getIncludes() != null) {
-                final Set<String> includes = new LinkedHashSet<>();
-                if (pd.getIncludes() != null) {
-                    for (final String v : pd.getIncludes()) {
-                        includes.add(v);
+                final Set<String> values = includes.computeIfAbsent(pd, key -> {
+                    final Set<String> set = new LinkedHashSet<>();
+                    if (key.getIncludes() != null) {
+                        Collections.addAll(set, key.getIncludes());
                     }
-                }
-                for (final String v : entry.getValue().getIncludes()) {
-                    includes.add(v);
-                }
-                pd.setIncludes(includes.toArray(new String[includes.size()]));
+                    return set;
+                });
+                Collections.addAll(values, entry.getValue().getIncludes());
             }
         }
         if (entity instanceof FactoryConfigurationDescription) {
@@ -207,4 +315,13 @@ public class ConfigurationApiMergeHandler implements MergeHandler {
             }
         }
     }
+
+    /**
+     * Set the includes collected by {@link #processAddition(String, ConfigurableEntity, ConfigurableEntityAddition, Map)}
+     */
+    static void setIncludes(final Map<PropertyDescription, Set<String>> includes) {
+        for (final Map.Entry<PropertyDescription, Set<String>> entry : includes.entrySet()) {
+            entry.getKey().setIncludes(entry.getValue().toArray(new String[0]));
+        }
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.extension.apiregions.api.config.ConfigurableEntity;
+import org.apache.sling.feature.extension.apiregions.api.config.ConfigurableEntityAddition;
+import org.apache.sling.feature.extension.apiregions.api.config.ConfigurationApi;
+import org.apache.sling.feature.extension.apiregions.api.config.ConfigurationDescription;
+import org.apache.sling.feature.extension.apiregions.api.config.ConfigurationDescriptionAddition;
+import org.apache.sling.feature.extension.apiregions.api.config.FactoryConfigurationDescription;
+import org.apache.sling.feature.extension.apiregions.api.config.FactoryConfigurationDescriptionAddition;
+import org.apache.sling.feature.extension.apiregions.api.config.FrameworkPropertyDescription;
+import org.apache.sling.feature.extension.apiregions.api.config.PropertyDescription;
+import org.apache.sling.feature.extension.apiregions.api.config.Region;
+
+/**
+ * Merges the configuration api of several features with the same result as
+ * {@link ConfigurationApiMergeHandler} merging them one after the other into a
+ * feature without configuration api.
+ * Merging two mergers is associative, mergers of adjacent sources can therefore
+ * be combined in any grouping, see {@link MergeTree}. To achieve this, the
+ * configuration description additions are collected together with the index of
+ * their source and only applied when the result is built.
+ */
+final class ConfigurationApiMerger {
+
+    private static final class Addition<T extends ConfigurableEntityAddition> {
+
+        final int source;
+
+        final T addition;
+
+        Addition(final int source, final T addition) {
+            this.source = source;
+            this.addition = addition;
+        }
+    }
+
+    /** The configuration api of the first source, receiving the result */
+    private final ConfigurationApi api;
+
+    /** The number of merged sources */
+    private int sourceCount = 1;
+
+    /** The index of the source of each configuration description */
+    private final Map<String, Integer> configurationSources = new HashMap<>();
+
+    /** The index of the source of each factory configuration description */
+    private final Map<String, Integer> factorySources = new HashMap<>();
+
+    /** The configuration additions per pid, in the order of the sources */
+    private final Map<String, List<Addition<ConfigurationDescriptionAddition>>> configurationAdditions =
+            new LinkedHashMap<>();
+
+    /** The factory configuration additions per factory pid, in the order of the sources */
+    private final Map<String, List<Addition<FactoryConfigurationDescriptionAddition>>> factoryAdditions =
+            new LinkedHashMap<>();
+
+    /**
+     * Create a merger for a single source
+     *
+     * @param index The index of the source
+     * @param featureId The id of the source feature
+     * @param api The configuration api of the source feature, must not be used afterwards
+     */
+    ConfigurationApiMerger(final int index, final ArtifactId featureId, final ConfigurationApi api) {
+        this.api = api;
+
+        // the first feature is copied, all others are merged into the target
+        final Region region = api.detectRegion();
+        if (index == 0) {
+            api.getFeatureToRegionCache().put(featureId, region);
+        } else {
+            final Map<ArtifactId, Region> cache = new LinkedHashMap<>();
+            cache.put(featureId, region);
+            cache.putAll(api.getFeatureToRegionCache());
+            api.getFeatureToRegionCache().clear();
+            api.getFeatureToRegionCache().putAll(cache);
+        }
+
+        for (final String pid : api.getConfigurationDescriptions().keySet()) {
+            this.configurationSources.put(pid, index);
+        }
+        for (final String pid : api.getFactoryConfigurationDescriptions().keySet()) {
+            this.factorySources.put(pid, index);
+        }
+        for (final Map.Entry<String, ConfigurationDescriptionAddition> entry :
+                api.getConfigurationDescriptionAdditions().entrySet()) {
+            final List<Addition<ConfigurationDescriptionAddition>> list = new ArrayList<>();
+            list.add(new Addition<>(index, entry.getValue()));
+            this.configurationAdditions.put(entry.getKey(), list);
+        }
+        for (final Map.Entry<String, FactoryConfigurationDescriptionAddition> entry :
+                api.getFactoryConfigurationDescriptionAdditions().entrySet()) {
+            final List<Addition<FactoryConfigurationDescriptionAddition>> list = new ArrayList<>();
+            list.add(new Addition<>(index, entry.getValue()));
+            this.factoryAdditions.put(entry.getKey(), list);
+        }
+        api.getConfigurationDescriptionAdditions().clear();
+        api.getFactoryConfigurationDescriptionAdditions().clear();
+    }
+
+    /**
+     * Add all sources of another merger. The sources of the other merger
+     * must follow the sources of this merger.
+     *
+     * @param other The other merger, must not be used afterwards
+     * @return This merger
+     * @throws IllegalStateException If a description is defined more than once
+     */
+    ConfigurationApiMerger merge(final ConfigurationApiMerger other) {
+        final ConfigurationApi sourceApi = other.api;
+
+        // the region stays the same as long as all sources agree
+        if (sourceApi.getRegion() != this.api.getRegion()) {
+            this.api.setRegion(Region.GLOBAL);
+        }
+        if (this.api.getMode().ordinal() > sourceApi.getMode().ordinal()) {
+            this.api.setMode(sourceApi.getMode());
+        }
+
+        for (final Map.Entry<String, ConfigurationDescription> entry :
+                sourceApi.getConfigurationDescriptions().entrySet()) {
+            if (this.api.getConfigurationDescriptions().containsKey(entry.getKey())) {
+                throw new IllegalStateException("Duplicate configuration description " + entry.getKey());
+            }
+            this.api.getConfigurationDescriptions().put(entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<String, FactoryConfigurationDescription> entry :
+                sourceApi.getFactoryConfigurationDescriptions().entrySet()) {
+            if (this.api.getFactoryConfigurationDescriptions().containsKey(entry.getKey())) {
+                throw new IllegalStateException("Duplicate factory configuration description " + entry.getKey());
+            }
+            this.api.getFactoryConfigurationDescriptions().put(entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<String, FrameworkPropertyDescription> entry :
+                sourceApi.getFrameworkPropertyDescriptions().entrySet()) {
+            if (this.api.getFrameworkPropertyDescriptions().containsKey(entry.getKey())) {
+                throw new IllegalStateException("Duplicate framework property description " + entry.getKey());
+            }
+            this.api.getFrameworkPropertyDescriptions().put(entry.getKey(), entry.getValue());
+        }
+        this.api.getInternalFrameworkProperties().addAll(sourceApi.getInternalFrameworkProperties());
+        this.api.getFeatureToRegionCache().putAll(sourceApi.getFeatureToRegionCache());
+
+        this.configurationSources.putAll(other.configurationSources);
+        this.factorySources.putAll(other.factorySources);
+        for (final Map.Entry<String, List<Addition<ConfigurationDescriptionAddition>>> entry :
+                other.configurationAdditions.entrySet()) {
+            this.configurationAdditions
+                    .computeIfAbsent(entry.getKey(), key -> new ArrayList<>())
+                    .addAll(entry.getValue());
+        }
+        for (final Map.Entry<String, List<Addition<FactoryConfigurationDescriptionAddition>>> entry :
+                other.factoryAdditions.entrySet()) {
+            this.factoryAdditions
+                    .computeIfAbsent(entry.getKey(), key -> new ArrayList<>())
+                    .addAll(entry.getValue());
+        }
+        this.sourceCount += other.sourceCount;
+        return this;
+    }
+
+    /**
+     * Build the merged configuration api
+     *
+     * @return The configuration api
+     * @throws IllegalStateException If an addition is invalid or defined more than once
+     *         before its description
+     */
+    ConfigurationApi build() {
+        final Map<PropertyDescription, Set<String>> includes = new IdentityHashMap<>();
+        applyAdditions(
+                "configuration ",
+                this.api.getConfigurationDescriptions(),
+                this.configurationSources,
+                this.configurationAdditions,
+                this.api.getConfigurationDescriptionAdditions(),
+                includes);
+        applyAdditions(
+                "factory configuration ",
+                this.api.getFactoryConfigurationDescriptions(),
+                this.factorySources,
+                this.factoryAdditions,
+                this.api.getFactoryConfigurationDescriptionAdditions(),
+                includes);
+        ConfigurationApiMergeHandler.setIncludes(includes);
+        return this.api;
+    }
+
+    /**
+     * Apply the additions to their descriptions. Additions are kept if there is no
+     * description. While merging one after the other, only a single addition can be
+     * kept per pid until the description is found.
+     */
+    private <D extends ConfigurableEntity, A extends ConfigurableEntityAddition> void applyAdditions(
+            final String type,
+            final Map<String, D> descriptions,
+            final Map<String, Integer> descriptionSources,
+            final Map<String, List<Addition<A>>> additions,
+            final Map<String, A> keptAdditions,
+            final Map<PropertyDescription, Set<String>> includes) {
+        for (final Map.Entry<String, List<Addition<A>>> entry : additions.entrySet()) {
+            final D description = descriptions.get(entry.getKey());
+            // a single feature is just copied, additions are not applied
+            final int keptCount;
+            if (description == null || this.sourceCount == 1) {
+                keptCount = entry.getValue().size();
+            } else {
+                final int descriptionSource = descriptionSources.get(entry.getKey());
+                keptCount = (int) entry.getValue().stream()
+                        .filter(a -> a.source < descriptionSource)
+                        .count();
+            }
+            if (keptCount > 1) {
+                throw new IllegalStateException("Duplicate "
+                        .concat(type)
+                        .concat("description addition ")
+                        .concat(entry.getKey()));
+            }
+            if (description == null || this.sourceCount == 1) {
+                keptAdditions.put(entry.getKey(), entry.getValue().get(0).addition);
+            } else {
+                for (final Addition<A> addition : entry.getValue()) {
+                    ConfigurationApiMergeHandler.processAddition(
+                            type.concat(entry.getKey()), description, addition.addition, includes);
+                }
+            }
+        }
+    }
+}
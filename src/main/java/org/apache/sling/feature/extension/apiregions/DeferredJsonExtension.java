@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions;
+
+import java.io.IOException;
+
+import jakarta.json.JsonStructure;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionState;
+import org.apache.sling.feature.ExtensionType;
+import org.apache.sling.feature.Feature;
+
+/**
+ * JSON extension written by a merge handler. While features are aggregated,
+ * the same target extension is merged with the extension of every source
+ * feature. Instead of serializing the target after every merge, the extension
+ * keeps the merged model and only writes it to JSON once the JSON is read.
+ * The next merge continues with the model, as long as the JSON of the
+ * extension has not been replaced in between.
+ * <p>
+ * A copy or a serialized form of this extension is a plain {@link Extension}.
+ *
+ * @param <T> The model type
+ */
+final class DeferredJsonExtension<T> extends Extension {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Writes the model to JSON
+     *
+     * @param <T> The model type
+     */
+    @FunctionalInterface
+    interface Writer<T> {
+
+        JsonStructure write(T model) throws IOException;
+    }
+
+    private final transient Writer<T> writer;
+
+    private transient T model;
+
+    /** Whether the model has not been written to the JSON yet */
+    private transient boolean pending;
+
+    private DeferredJsonExtension(final String name, final ExtensionState state, final Writer<T> writer) {
+        super(ExtensionType.JSON, name, state);
+        this.writer = writer;
+    }
+
+    /**
+     * Get the model of an extension written by {@link #setModel(Feature, Extension, String, ExtensionState, Object, Writer)}
+     *
+     * @param <T> The model type
+     * @param extension The extension
+     * @param type The model type
+     * @return The model or {@code null} if the extension has no model of that type, for
+     *         example because its JSON has been replaced
+     */
+    static <T> T getModel(final Extension extension, final Class<T> type) {
+        if (extension instanceof DeferredJsonExtension) {
+            final Object model = ((DeferredJsonExtension<?>) extension).getModel();
+            if (type.isInstance(model)) {
+                return type.cast(model);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the model as the content of the target extension. If there is no target
+     * extension yet, a new extension is added to the feature and the model is only
+     * written to JSON once the JSON of the extension is read. A target extension
+     * which has not been added by this method is written immediately, as it can't
+     * be replaced without the caller noticing.
+     *
+     * @param <T> The model type
+     * @param feature The feature
+     * @param extension The target extension or {@code null}
+     * @param name The name of the extension, if there is no target extension yet
+     * @param state The state of the extension, if there is no target extension yet
+     * @param model The model
+     * @param writer Writes the model to JSON
+     * @throws IllegalStateException If the target extension has a wrong type
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void setModel(
+            final Feature feature,
+            final Extension extension,
+            final String name,
+            final ExtensionState state,
+            final T model,
+            final Writer<T> writer) {
+        if (extension instanceof DeferredJsonExtension) {
+            ((DeferredJsonExtension<T>) extension).setModel(model);
+        } else if (extension == null) {
+            final DeferredJsonExtension<T> deferred = new DeferredJsonExtension<>(name, state, writer);
+            deferred.setModel(model);
+            feature.getExtensions().add(deferred);
+        } else {
+            if (extension.getType() != ExtensionType.JSON) {
+                throw new IllegalStateException("Extension " + extension.getName() + " must have JSON type");
+            }
+            extension.setJSONStructure(write(extension.getName(), writer, model));
+        }
+    }
+
+    private static <T> JsonStructure write(final String name, final Writer<T> writer, final T model) {
+        try {
+            return writer.write(model);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to write extension " + name, e);
+        }
+    }
+
+    private synchronized Object getModel() {
+        return this.model;
+    }
+
+    private synchronized void setModel(final T model) {
+        this.model = model;
+        this.pending = true;
+    }
+
+    private void write() {
+        if (this.pending) {
+            super.setJSONStructure(write(this.getName(), this.writer, this.model));
+            this.pending = false;
+        }
+    }
+
+    @Override
+    public synchronized String getJSON() {
+        this.write();
+        return super.getJSON();
+    }
+
+    @Override
+    public synchronized void setJSON(final String text) {
+        super.setJSON(text);
+        this.model = null;
+        this.pending = false;
+    }
+
+    @Override
+    public synchronized JsonStructure getJSONStructure() {
+        this.write();
+        return super.getJSONStructure();
+    }
+
+    @Override
+    public synchronized void setJSONStructure(final JsonStructure struct) {
+        super.setJSONStructure(struct);
+        this.model = null;
+        this.pending = false;
+    }
+
+    @Override
+    public synchronized Extension copy() {
+        this.write();
+        return super.copy();
+    }
+
+    private Object writeReplace() {
+        return this.copy();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+
+/**
+ * Combines the partial merge results of a list of sources as a balanced tree.
+ * The combine operation must be associative and may modify its left argument.
+ * Each partial result is created from a single source together with the index
+ * of the source in the list.
+ */
+final class MergeTree {
+
+    private MergeTree() {
+        // no instances
+    }
+
+    /**
+     * Merge the sources
+     *
+     * @param <S> The source type
+     * @param <P> The type of the partial result
+     * @param sources The sources in the order of merging
+     * @param leaf Creates the partial result for a single source
+     * @param combine Combines two adjacent partial results
+     * @param pool The pool to use, if {@code null} the sources are merged in the calling thread
+     * @return The result or {@code null} if there are no sources
+     */
+    static <S, P> P merge(
+            final List<S> sources,
+            final BiFunction<Integer, S, P> leaf,
+            final BinaryOperator<P> combine,
+            final ForkJoinPool pool) {
+        if (sources.isEmpty()) {
+            return null;
+        }
+        if (pool == null) {
+            P result = leaf.apply(0, sources.get(0));
+            for (int i = 1; i < sources.size(); i++) {
+                result = combine.apply(result, leaf.apply(i, sources.get(i)));
+            }
+            return result;
+        }
+        return pool.invoke(new MergeTask<>(sources, leaf, combine, 0, sources.size()));
+    }
+
+    private static final class MergeTask<S, P> extends RecursiveTask<P> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<S> sources;
+
+        private final transient BiFunction<Integer, S, P> leaf;
+
+        private final transient BinaryOperator<P> combine;
+
+        private final int start;
+
+        private final int end;
+
+        MergeTask(
+                final List<S> sources,
+                final BiFunction<Integer, S, P> leaf,
+                final BinaryOperator<P> combine,
+                final int start,
+                final int end) {
+            this.sources = sources;
+            this.leaf = leaf;
+            this.combine = combine;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected P compute() {
+            if (end - start == 1) {
+                return leaf.apply(start, sources.get(start));
+            }
+            final int middle = (start + end) >>> 1;
+            final MergeTask<S, P> left = new MergeTask<>(sources, leaf, combine, start, middle);
+            left.fork();
+            final P right = new MergeTask<>(sources, leaf, combine, middle, end).compute();
+            return combine.apply(left.join(), right);
+        }
+    }
+}
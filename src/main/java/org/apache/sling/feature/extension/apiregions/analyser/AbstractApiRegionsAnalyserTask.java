@@ -22,6 +22,12 @@ import org.apache.sling.feature.analyser.task.AnalyserTask;
 import org.apache.sling.feature.analyser.task.AnalyserTaskContext;
 import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
 
+/**
+ * Base class for analyser tasks checking the api regions of a feature.
+ * By default, each task gets its own, mutable copy of the api regions.
+ * Tasks which do not change the api regions can opt into a frozen instance
+ * shared between all tasks of a run, see {@link #useSharedApiRegions()}.
+ */
 public abstract class AbstractApiRegionsAnalyserTask implements AnalyserTask {
 
     @Override
@@ -29,7 +35,9 @@ public abstract class AbstractApiRegionsAnalyserTask implements AnalyserTask {
         // read the api-regions
         ApiRegions apiRegions;
         try {
-            apiRegions = ApiRegions.getApiRegions(ctx.getFeature());
+            apiRegions = useSharedApiRegions()
+                    ? ApiRegionsCache.getApiRegions(ctx.getFeature())
+                    : ApiRegions.getApiRegions(ctx.getFeature());
         } catch (final IllegalArgumentException e) {
             ctx.reportError("API Regions does not represent a valid JSON 'api-regions': " + e.getMessage());
             return;
@@ -41,5 +49,25 @@ public abstract class AbstractApiRegionsAnalyserTask implements AnalyserTask {
         execute(apiRegions, ctx);
     }
 
+    /**
+     * Whether the task gets the frozen api regions shared between all tasks of a run.
+     * The shared instance is parsed once, but any attempt to change it throws an
+     * {@link UnsupportedOperationException}. Tasks changing the api regions they are
+     * given must not opt in.
+     *
+     * @return {@code true} to use the shared frozen api regions, {@code false} for a
+     *         mutable copy. The default is {@code false}.
+     */
+    protected boolean useSharedApiRegions() {
+        return false;
+    }
+
+    /**
+     * Analyse the api regions
+     *
+     * @param apiRegions The api regions, frozen if {@link #useSharedApiRegions()} returns {@code true}
+     * @param ctx The analyser context
+     * @throws Exception If the analysis fails
+     */
     protected abstract void execute(ApiRegions apiRegions, AnalyserTaskContext ctx) throws Exception;
 }
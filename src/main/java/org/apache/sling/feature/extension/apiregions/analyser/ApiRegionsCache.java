@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import jakarta.json.JsonStructure;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
+
+/**
+ * Cache for the parsed api regions of a feature. All analyser tasks of a run
+ * analyse the same feature, the api regions extension is therefore parsed once
+ * and the frozen result is shared between the tasks.
+ * Entries are looked up by the identity of the extension and validated
+ * against the JSON structure the regions were parsed from.
+ */
+final class ApiRegionsCache {
+
+    /** Maximum number of cached extensions */
+    private static final int MAX_ENTRIES = 4;
+
+    private static final IdentityCache<Extension, Entry> CACHE = new IdentityCache<>(MAX_ENTRIES);
+
+    private ApiRegionsCache() {
+        // no instances
+    }
+
+    private static final class Entry {
+
+        final JsonStructure json;
+
+        final ApiRegions regions;
+
+        Entry(final JsonStructure json, final ApiRegions regions) {
+            this.json = json;
+            this.regions = regions;
+        }
+    }
+
+    /**
+     * Get the api regions from the feature - if it exists.
+     *
+     * @param feature The feature
+     * @return The frozen api regions or {@code null}.
+     * @throws IllegalArgumentException If the extension is wrongly formatted
+     * @see ApiRegions#getApiRegions(Feature)
+     */
+    static ApiRegions getApiRegions(final Feature feature) {
+        final Extension ext = feature == null ? null : feature.getExtensions().getByName(ApiRegions.EXTENSION_NAME);
+        if (ext == null) {
+            return null;
+        }
+        final JsonStructure json = ext.getJSONStructure();
+        final Entry entry = CACHE.get(ext, e -> e.json == json || (e.json != null && e.json.equals(json)));
+        if (entry != null) {
+            return entry.regions;
+        }
+        final ApiRegions regions = ApiRegions.getApiRegions(ext).freeze();
+        CACHE.put(ext, new Entry(json, regions));
+        return regions;
+    }
+}
@@ -18,8 +18,12 @@
  */
 package org.apache.sling.feature.extension.apiregions.analyser;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Formatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.sling.feature.analyser.task.AnalyserTaskContext;
 import org.apache.sling.feature.extension.apiregions.api.ApiExport;
@@ -31,6 +35,11 @@ import org.apache.sling.feature.scanner.PackageInfo;
 
 public class CheckApiRegions extends AbstractApiRegionsAnalyserTask {
 
+    @Override
+    protected boolean useSharedApiRegions() {
+        return true;
+    }
+
     @Override
     public String getId() {
         return ApiRegions.EXTENSION_NAME;
@@ -43,49 +52,38 @@ public class CheckApiRegions extends AbstractApiRegionsAnalyserTask {
 
     @Override
     protected void execute(ApiRegions apiRegions, AnalyserTaskContext ctx) throws Exception {
-        // for each bundle, get the Export-Package and process the packages
-
+        // for each bundle, get the Export-Package and collect the packages
+        Set<String> exportedPackages = new HashSet<>();
         FeatureDescriptor featureDescriptor = ctx.getFeatureDescriptor();
         for (BundleDescriptor bundleDescriptor : featureDescriptor.getBundleDescriptors()) {
             for (PackageInfo packageInfo : bundleDescriptor.getExportedPackages()) {
-                String exportedPackage = packageInfo.getName();
-                // use the Sieve technique: remove bundle exported packages from the api-regions
-                for (final ApiRegion region : apiRegions.listRegions()) {
-                    ApiExport export = region.getExportByName(exportedPackage);
-                    if (export != null) {
-                        region.remove(export);
-                    }
-                }
+                exportedPackages.add(packageInfo.getName());
             }
         }
 
-        boolean isEmpty = true;
-        for (final ApiRegion region : apiRegions.listRegions()) {
-            if (!region.listExports().isEmpty()) {
-                isEmpty = false;
-                break;
+        // final evaluation: the packages declared in a region but not exported by bundles of the same feature
+        // track a single error for each region
+        for (ApiRegion region : apiRegions.listRegions()) {
+            List<ApiExport> missing = new ArrayList<>();
+            for (ApiExport export : region.listExports()) {
+                if (!exportedPackages.contains(export.getName())) {
+                    missing.add(export);
+                }
             }
-        }
-        // final evaluation: if the Sieve is not empty, not all declared packages are exported by bundles of the same
-        // feature
-        if (!isEmpty) {
-            // track a single error for each region
-            for (ApiRegion region : apiRegions.listRegions()) {
-                if (!region.listExports().isEmpty()) {
-                    Formatter formatter = new Formatter();
-                    formatter.format(
-                            "Region '%s' defined in feature '%s' declares %s package%s which %s not exported by any bundle:%n",
-                            region.getName(),
-                            ctx.getFeature().getId(),
-                            region.listExports().size(),
-                            getExtension(region.listExports(), "", "s"),
-                            getExtension(region.listExports(), "is", "are"));
-                    region.listExports().forEach(api -> formatter.format(" * %s%n", api.getName()));
+            if (!missing.isEmpty()) {
+                Formatter formatter = new Formatter();
+                formatter.format(
+                        "Region '%s' defined in feature '%s' declares %s package%s which %s not exported by any bundle:%n",
+                        region.getName(),
+                        ctx.getFeature().getId(),
+                        missing.size(),
+                        getExtension(missing, "", "s"),
+                        getExtension(missing, "is", "are"));
+                missing.forEach(api -> formatter.format(" * %s%n", api.getName()));
 
-                    ctx.reportError(formatter.toString());
+                ctx.reportError(formatter.toString());
 
-                    formatter.close();
-                }
+                formatter.close();
             }
         }
     }
@@ -20,14 +20,20 @@ package org.apache.sling.feature.extension.apiregions.analyser;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,13 +44,19 @@ import org.apache.sling.feature.extension.apiregions.api.ApiRegion;
 import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
 import org.apache.sling.feature.scanner.BundleDescriptor;
 import org.apache.sling.feature.scanner.PackageInfo;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
 
 public class CheckApiRegionsBundleExportsImports implements AnalyserTask {
 
     private static final String IGNORE_API_REGIONS_CONFIG_KEY = "ignoreAPIRegions";
     private static final String GLOBAL_REGION = "global";
-    private static final String NO_REGION = " __NO_REGION__ ";
-    private static final String OWN_FEATURE = " __OWN_FEATURE__ ";
+
+    /**
+     * Number of threads used to resolve the bundles of a start level, a value of
+     * one resolves the bundles sequentially. The value must be a positive number.
+     */
+    private static final String PARALLELISM_CONFIG_KEY = "parallelism";
 
     @Override
     public String getName() {
@@ -69,10 +81,6 @@ public class CheckApiRegionsBundleExportsImports implements AnalyserTask {
         public Map<PackageInfo, Map.Entry<Set<String>, Set<String>>> regionInfo = new HashMap<>();
     }
 
-    private Report getReport(final Map<BundleDescriptor, Report> reports, final BundleDescriptor info) {
-        return reports.computeIfAbsent(info, key -> new Report());
-    }
-
     @Override
     public void execute(final AnalyserTaskContext ctx) throws Exception {
         boolean ignoreAPIRegions = ctx.getConfiguration()
@@ -89,111 +97,46 @@ public class CheckApiRegionsBundleExportsImports implements AnalyserTask {
         }
 
         // add all system packages
-        final List<BundleDescriptor> exportingBundles = new ArrayList<>();
+        final ExportingBundles exportingBundles = new ExportingBundles();
         if (ctx.getFrameworkDescriptor() != null) {
             exportingBundles.add(ctx.getFrameworkDescriptor());
         }
 
+        final String parallelismValue = ctx.getConfiguration().getOrDefault(PARALLELISM_CONFIG_KEY, "1");
+        int parallelism;
+        try {
+            parallelism = Integer.parseInt(parallelismValue.trim());
+        } catch (final NumberFormatException nfe) {
+            parallelism = 0;
+        }
+        if (parallelism < 1) {
+            ctx.reportError("Invalid value for configuration " + PARALLELISM_CONFIG_KEY
+                    + ", expected a positive number: " + parallelismValue);
+            return;
+        }
+
         // extract and check the api-regions
         ApiRegions apiRegions = null;
         try {
-            apiRegions = ApiRegions.getApiRegions(ctx.getFeature());
+            apiRegions = ApiRegionsCache.getApiRegions(ctx.getFeature());
         } catch (final IllegalArgumentException e) {
             ctx.reportError("API Region does not represent a valid JSON 'api-regions': " + e.getMessage());
             return;
         }
         if (apiRegions == null) {
-            apiRegions = new ApiRegions(); // Empty region as default
+            apiRegions = new ApiRegions().freeze(); // Empty region as default
         }
 
-        for (final Map.Entry<Integer, List<BundleDescriptor>> entry : bundlesMap.entrySet()) {
-            // first add all exporting bundles
-            for (final BundleDescriptor info : entry.getValue()) {
-                if (!info.getExportedPackages().isEmpty()) {
-                    exportingBundles.add(info);
-                }
-            }
-            // check importing bundles
-            for (final BundleDescriptor info : entry.getValue()) {
-                for (final PackageInfo pck : info.getImportedPackages()) {
-                    final Map<BundleDescriptor, Set<String>> candidates =
-                            getCandidates(exportingBundles, pck, info, apiRegions, ignoreAPIRegions);
-                    if (candidates.isEmpty()) {
-                        if (pck.isOptional()) {
-                            getReport(reports, info).missingExportsForOptional.add(pck);
-                        } else {
-                            getReport(reports, info).missingExports.add(pck);
-                        }
-                    } else {
-                        final List<BundleDescriptor> matchingCandidates = new ArrayList<>();
-
-                        Set<String> exportingRegions = new HashSet<>();
-                        Set<String> importingRegions = new HashSet<>();
-                        for (final Map.Entry<BundleDescriptor, Set<String>> candidate : candidates.entrySet()) {
-                            BundleDescriptor bd = candidate.getKey();
-                            if (bd.isExportingPackage(pck)) {
-                                Set<String> exRegions = candidate.getValue();
-                                if (exRegions.contains(NO_REGION)) {
-                                    // If an export is defined outside of a region, it always matches
-                                    matchingCandidates.add(bd);
-                                    continue;
-                                }
-                                if (exRegions.contains(GLOBAL_REGION)) {
-                                    // Everyone can import from the global regin
-                                    matchingCandidates.add(bd);
-                                    continue;
-                                }
-                                if (exRegions.contains(OWN_FEATURE)) {
-                                    // A feature can always import packages from bundles in itself
-                                    matchingCandidates.add(bd);
-                                    continue;
-                                }
-
-                                // Find out what regions the importing bundle is in
-                                Set<String> imRegions = getBundleRegions(info, apiRegions, ignoreAPIRegions);
-
-                                // Record the exporting and importing regions for diagnostics
-                                exportingRegions.addAll(exRegions);
-
-                                Set<String> regions = new HashSet<>();
-                                for (String region : imRegions) {
-                                    for (ApiRegion r = apiRegions.getRegionByName(region);
-                                            r != null;
-                                            r = r.getParent()) {
-                                        regions.add(r.getName());
-                                    }
-                                }
-
-                                importingRegions.addAll(regions);
-
-                                // Only keep the regions that also export the package
-                                regions.retainAll(exRegions);
-
-                                if (!regions.isEmpty()) {
-                                    // there is an overlapping region
-                                    matchingCandidates.add(bd);
-                                }
-                            }
-                        }
-
-                        if (matchingCandidates.isEmpty()) {
-                            if (pck.isOptional()) {
-                                getReport(reports, info)
-                                        .missingExportsForOptional
-                                        .add(pck);
-                            } else {
-                                getReport(reports, info)
-                                        .missingExportsWithVersion
-                                        .add(pck);
-                                getReport(reports, info)
-                                        .regionInfo
-                                        .put(pck, new AbstractMap.SimpleEntry<>(exportingRegions, importingRegions));
-                            }
-                        } else if (matchingCandidates.size() > 1) {
-                            getReport(reports, info).exportMatchingSeveral.add(pck);
-                        }
-                    }
-                }
+        final RegionMasks masks =
+                new RegionMasks(RegionAnalysisIndex.getIndex(ctx.getFeatureDescriptor(), apiRegions), ignoreAPIRegions);
+
+        // the pool is only used for this run and shut down afterwards
+        final ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            resolveStartLevels(bundlesMap, exportingBundles, masks, ignoreAPIRegions, pool, reports);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
         }
 
@@ -236,20 +179,327 @@ public class CheckApiRegionsBundleExportsImports implements AnalyserTask {
         }
     }
 
-    private Set<String> getBundleRegions(BundleDescriptor info, ApiRegions regions, boolean ignoreAPIRegions) {
-        Set<String> result = ignoreAPIRegions
-                ? Collections.emptySet()
-                : Stream.of(info.getArtifact().getFeatureOrigins())
-                        .map(regions::getRegionsByFeature)
-                        .flatMap(Stream::of)
-                        .map(ApiRegion::getName)
-                        .collect(Collectors.toSet());
+    private void resolveStartLevels(
+            final SortedMap<Integer, List<BundleDescriptor>> bundlesMap,
+            final ExportingBundles exportingBundles,
+            final RegionMasks masks,
+            final boolean ignoreAPIRegions,
+            final ForkJoinPool pool,
+            final Map<BundleDescriptor, Report> reports) {
+        for (final Map.Entry<Integer, List<BundleDescriptor>> entry : bundlesMap.entrySet()) {
+            // first add all exporting bundles
+            for (final BundleDescriptor info : entry.getValue()) {
+                exportingBundles.add(info);
+            }
+            // check importing bundles
+            if (pool == null) {
+                for (final BundleDescriptor info : entry.getValue()) {
+                    addReport(reports, info, resolveImports(info, exportingBundles, masks, ignoreAPIRegions));
+                }
+            } else {
+                // the exporters of this start level are complete, the bundles can be resolved concurrently
+                final List<ForkJoinTask<Report>> tasks = new ArrayList<>();
+                for (final BundleDescriptor info : entry.getValue()) {
+                    tasks.add(pool.submit(() -> resolveImports(info, exportingBundles, masks, ignoreAPIRegions)));
+                }
+                // add the reports in bundle order to get the same result as a sequential run
+                for (int i = 0; i < tasks.size(); i++) {
+                    addReport(reports, entry.getValue().get(i), tasks.get(i).join());
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve the imports of a bundle against the exporters visible at its start level.
+     *
+     * @return The report for the bundle or {@code null} if all imports are resolved
+     */
+    private Report resolveImports(
+            final BundleDescriptor info,
+            final ExportingBundles exportingBundles,
+            final RegionMasks masks,
+            final boolean ignoreAPIRegions) {
+        final Report report = new Report();
+        for (final PackageInfo pck : info.getImportedPackages()) {
+            // only the exporters with a matching version are candidates
+            final Map<BundleDescriptor, Candidate> candidates =
+                    getCandidates(exportingBundles.getExporters(pck), pck, info, masks, ignoreAPIRegions);
+            if (candidates.isEmpty()
+                    && getCandidates(exportingBundles.getExporters(pck.getName()), pck, info, masks, ignoreAPIRegions)
+                            .isEmpty()) {
+                if (pck.isOptional()) {
+                    report.missingExportsForOptional.add(pck);
+                } else {
+                    report.missingExports.add(pck);
+                }
+            } else {
+                final List<BundleDescriptor> matchingCandidates = new ArrayList<>();
+
+                final BitSet exportingRegions = new BitSet();
+                final BitSet importingRegions = new BitSet();
+                for (final Map.Entry<BundleDescriptor, Candidate> candidate : candidates.entrySet()) {
+                    BundleDescriptor bd = candidate.getKey();
+                    final Candidate exRegions = candidate.getValue();
+                    if (exRegions.noRegion) {
+                        // If an export is defined outside of a region, it always matches
+                        matchingCandidates.add(bd);
+                        continue;
+                    }
+                    if (masks.isGlobal(exRegions.regions)) {
+                        // Everyone can import from the global regin
+                        matchingCandidates.add(bd);
+                        continue;
+                    }
+                    if (exRegions.ownFeature) {
+                        // A feature can always import packages from bundles in itself
+                        matchingCandidates.add(bd);
+                        continue;
+                    }
+
+                    // Find out what regions the importing bundle is in, including the parents
+                    final BitSet regions = masks.getVisibleRegions(info);
+
+                    // Record the exporting and importing regions for diagnostics
+                    exportingRegions.or(exRegions.regions);
+                    importingRegions.or(regions);
+
+                    if (regions.intersects(exRegions.regions)) {
+                        // there is an overlapping region
+                        matchingCandidates.add(bd);
+                    }
+                }
 
-        if (result.isEmpty()) {
-            result = new HashSet<>();
-            result.add(NO_REGION);
+                if (matchingCandidates.isEmpty()) {
+                    if (pck.isOptional()) {
+                        report.missingExportsForOptional.add(pck);
+                    } else {
+                        report.missingExportsWithVersion.add(pck);
+                        report.regionInfo.put(
+                                pck,
+                                new AbstractMap.SimpleEntry<>(
+                                        masks.getNames(exportingRegions), masks.getNames(importingRegions)));
+                    }
+                } else if (matchingCandidates.size() > 1) {
+                    report.exportMatchingSeveral.add(pck);
+                }
+            }
         }
-        return result;
+        if (report.exportMatchingSeveral.isEmpty()
+                && report.missingExports.isEmpty()
+                && report.missingExportsWithVersion.isEmpty()
+                && report.missingExportsForOptional.isEmpty()) {
+            return null;
+        }
+        return report;
+    }
+
+    private void addReport(
+            final Map<BundleDescriptor, Report> reports, final BundleDescriptor info, final Report report) {
+        if (report != null) {
+            final Report existing = reports.putIfAbsent(info, report);
+            if (existing != null) {
+                existing.exportMatchingSeveral.addAll(report.exportMatchingSeveral);
+                existing.missingExports.addAll(report.missingExports);
+                existing.missingExportsWithVersion.addAll(report.missingExportsWithVersion);
+                existing.missingExportsForOptional.addAll(report.missingExportsForOptional);
+                existing.regionInfo.putAll(report.regionInfo);
+            }
+        }
+    }
+
+    /**
+     * Region masks of the bundles, calculated once per bundle
+     */
+    private static final class RegionMasks {
+
+        private static final BitSet NO_REGIONS = new BitSet();
+
+        private final RegionAnalysisIndex index;
+
+        private final ApiRegions apiRegions;
+
+        private final boolean ignoreAPIRegions;
+
+        private final int globalOrdinal;
+
+        private final Map<BundleDescriptor, BitSet> visibleRegions = new ConcurrentHashMap<>();
+
+        RegionMasks(final RegionAnalysisIndex index, final boolean ignoreAPIRegions) {
+            this.index = index;
+            this.apiRegions = index.getApiRegions();
+            this.ignoreAPIRegions = ignoreAPIRegions;
+            final ApiRegion global = apiRegions.getRegionByName(GLOBAL_REGION);
+            this.globalOrdinal = global == null ? -1 : apiRegions.getRegionOrdinal(global);
+        }
+
+        /**
+         * The regions of the bundle, empty if the bundle is not in any region
+         */
+        BitSet getBundleRegions(final BundleDescriptor info) {
+            return ignoreAPIRegions ? NO_REGIONS : index.getBundleRegions(info);
+        }
+
+        /**
+         * The regions of the bundle and all their parents
+         */
+        BitSet getVisibleRegions(final BundleDescriptor info) {
+            return visibleRegions.computeIfAbsent(info, key -> {
+                final BitSet regions = getBundleRegions(info);
+                final BitSet result = new BitSet();
+                for (int i = regions.nextSetBit(0); i >= 0; i = regions.nextSetBit(i + 1)) {
+                    result.or(index.getAllowedRegions(apiRegions.listRegions().get(i)));
+                }
+                return result;
+            });
+        }
+
+        boolean isGlobal(final BitSet regions) {
+            return globalOrdinal != -1 && regions.get(globalOrdinal);
+        }
+
+        ApiRegion getRegion(final int ordinal) {
+            return apiRegions.listRegions().get(ordinal);
+        }
+
+        Set<String> getNames(final BitSet regions) {
+            final Set<String> result = new HashSet<>();
+            for (int i = regions.nextSetBit(0); i >= 0; i = regions.nextSetBit(i + 1)) {
+                result.add(getRegion(i).getName());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The bundles added so far, indexed by the names of the packages they export.
+     * The exporters of a package are sorted by the exported version, an import
+     * version range therefore selects a contiguous part of the list.
+     */
+    private static final class ExportingBundles {
+
+        private final Map<String, List<Exporter>> exporters = new HashMap<>();
+
+        void add(final BundleDescriptor info) {
+            for (final PackageInfo pck : info.getExportedPackages()) {
+                final List<Exporter> list = exporters.computeIfAbsent(pck.getName(), key -> new ArrayList<>());
+                final Version version =
+                        pck.getPackageVersion() == null ? Version.emptyVersion : pck.getPackageVersion();
+                // insert after all exporters of the same version to keep the order of addition
+                list.add(upperBound(list, version), new Exporter(version, info));
+            }
+        }
+
+        /**
+         * Get all bundles exporting the package, regardless of the version
+         */
+        Collection<BundleDescriptor> getExporters(final String packageName) {
+            final List<Exporter> list = exporters.get(packageName);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            return getBundles(list, 0, list.size());
+        }
+
+        /**
+         * Get all bundles exporting the package in a version matching the import
+         */
+        Collection<BundleDescriptor> getExporters(final PackageInfo pck) {
+            final List<Exporter> list = exporters.get(pck.getName());
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            final VersionRange range = pck.getVersion() == null ? null : pck.getPackageVersionRange();
+            if (range == null) {
+                return getBundles(list, 0, list.size());
+            }
+            final int start = range.getLeftType() == VersionRange.LEFT_CLOSED
+                    ? lowerBound(list, range.getLeft())
+                    : upperBound(list, range.getLeft());
+            final int end;
+            if (range.getRight() == null) {
+                end = list.size();
+            } else {
+                end = range.getRightType() == VersionRange.RIGHT_CLOSED
+                        ? upperBound(list, range.getRight())
+                        : lowerBound(list, range.getRight());
+            }
+            return getBundles(list, start, end);
+        }
+
+        private static Collection<BundleDescriptor> getBundles(
+                final List<Exporter> list, final int start, final int end) {
+            if (start >= end) {
+                return Collections.emptyList();
+            }
+            // a bundle might export a package in several versions
+            final Set<BundleDescriptor> result = new LinkedHashSet<>();
+            for (int i = start; i < end; i++) {
+                result.add(list.get(i).bundle);
+            }
+            return result;
+        }
+
+        /**
+         * Index of the first exporter with a version greater than or equal to the given version
+         */
+        private static int lowerBound(final List<Exporter> list, final Version version) {
+            int low = 0;
+            int high = list.size();
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (list.get(mid).version.compareTo(version) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Index of the first exporter with a version greater than the given version
+         */
+        private static int upperBound(final List<Exporter> list, final Version version) {
+            int low = 0;
+            int high = list.size();
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (list.get(mid).version.compareTo(version) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class Exporter {
+
+        final Version version;
+
+        final BundleDescriptor bundle;
+
+        Exporter(final Version version, final BundleDescriptor bundle) {
+            this.version = version;
+            this.bundle = bundle;
+        }
+    }
+
+    /**
+     * The regions in which an exporting bundle makes a package visible
+     */
+    private static final class Candidate {
+
+        /** The exporting bundle is not in any region */
+        boolean noRegion;
+
+        /** The exporting bundle is in the same feature as the importing bundle */
+        boolean ownFeature;
+
+        /** The regions of the exporting bundle which contain the package */
+        final BitSet regions = new BitSet();
     }
 
     private String getPackageInfo(final List<PackageInfo> pcks, final boolean includeVersion) {
@@ -279,11 +529,11 @@ public class CheckApiRegionsBundleExportsImports implements AnalyserTask {
         return sb.toString();
     }
 
-    private Map<BundleDescriptor, Set<String>> getCandidates(
-            final List<BundleDescriptor> exportingBundles,
+    private Map<BundleDescriptor, Candidate> getCandidates(
+            final Collection<BundleDescriptor> exporters,
             final PackageInfo pck,
             final BundleDescriptor requestingBundle,
-            final ApiRegions apiRegions,
+            final RegionMasks masks,
             boolean ignoreAPIRegions) {
         Set<String> rf = ignoreAPIRegions
                 ? Collections.emptySet()
@@ -293,33 +543,39 @@ public class CheckApiRegionsBundleExportsImports implements AnalyserTask {
 
         final Set<String> requestingFeatures = rf;
 
-        final Map<BundleDescriptor, Set<String>> candidates = new HashMap<>();
-        for (final BundleDescriptor info : exportingBundles) {
-            if (info.isExportingPackage(pck.getName())) {
-                Set<String> providingFeatures = ignoreAPIRegions
-                        ? Collections.emptySet()
-                        : Stream.of(info.getArtifact().getFeatureOrigins())
-                                .map(ArtifactId::toMvnId)
-                                .collect(Collectors.toSet());
-
-                // Compute the intersection without modifying the sets
-                Set<String> intersection = providingFeatures.stream()
-                        .filter(s -> requestingFeatures.contains(s))
-                        .collect(Collectors.toSet());
-                if (!intersection.isEmpty()) {
-                    // A requesting bundle can see all exported packages inside its own feature
-                    candidates.put(info, Collections.singleton(OWN_FEATURE));
-                    continue;
-                }
-
-                for (String region : getBundleRegions(info, apiRegions, ignoreAPIRegions)) {
-                    if (!NO_REGION.equals(region)
-                            && (apiRegions.getRegionByName(region) == null
-                                    || apiRegions.getRegionByName(region).getAllExportByName(pck.getName()) == null))
-                        continue;
+        final Map<BundleDescriptor, Candidate> candidates = new HashMap<>();
+        for (final BundleDescriptor info : exporters) {
+            Set<String> providingFeatures = ignoreAPIRegions
+                    ? Collections.emptySet()
+                    : Stream.of(info.getArtifact().getFeatureOrigins())
+                            .map(ArtifactId::toMvnId)
+                            .collect(Collectors.toSet());
+
+            // Compute the intersection without modifying the sets
+            Set<String> intersection = providingFeatures.stream()
+                    .filter(s -> requestingFeatures.contains(s))
+                    .collect(Collectors.toSet());
+            if (!intersection.isEmpty()) {
+                // A requesting bundle can see all exported packages inside its own feature
+                final Candidate candidate = new Candidate();
+                candidate.ownFeature = true;
+                candidates.put(info, candidate);
+                continue;
+            }
 
-                    final Set<String> regions = candidates.computeIfAbsent(info, key -> new HashSet<>());
-                    regions.add(region);
+            final BitSet regions = masks.getBundleRegions(info);
+            if (regions.isEmpty()) {
+                final Candidate candidate = new Candidate();
+                candidate.noRegion = true;
+                candidates.put(info, candidate);
+                continue;
+            }
+            for (int i = regions.nextSetBit(0); i >= 0; i = regions.nextSetBit(i + 1)) {
+                if (masks.getRegion(i).getAllExportByName(pck.getName()) != null) {
+                    candidates
+                            .computeIfAbsent(info, key -> new Candidate())
+                            .regions
+                            .set(i);
                 }
             }
         }
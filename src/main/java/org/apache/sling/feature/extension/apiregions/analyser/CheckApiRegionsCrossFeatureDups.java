@@ -23,7 +23,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,6 +39,11 @@ import org.apache.sling.feature.scanner.PackageInfo;
 
 public class CheckApiRegionsCrossFeatureDups extends AbstractApiRegionsAnalyserTask {
 
+    @Override
+    protected boolean useSharedApiRegions() {
+        return true;
+    }
+
     @Override
     public String getId() {
         return ApiRegions.EXTENSION_NAME + "-crossfeature-dups";
@@ -53,9 +57,12 @@ public class CheckApiRegionsCrossFeatureDups extends AbstractApiRegionsAnalyserT
     @Override
     protected void execute(ApiRegions apiRegions, AnalyserTaskContext ctx) throws Exception {
         Set<String> checkedRegions = splitListConfig(ctx.getConfiguration().get("regions"));
-        Set<String> ignoredPackages = splitListConfig(ctx.getConfiguration().get("ignoredPackages"));
-        Set<String> warningPackages = splitListConfig(ctx.getConfiguration().get("warningPackages"));
-        Set<String> definingFeatures = splitListConfig(ctx.getConfiguration().get("definingFeatures"));
+        WildcardMatcher ignoredPackages =
+                new WildcardMatcher(splitListConfig(ctx.getConfiguration().get("ignoredPackages")));
+        WildcardMatcher warningPackages =
+                new WildcardMatcher(splitListConfig(ctx.getConfiguration().get("warningPackages")));
+        Set<String> definingFeatureNames =
+                splitListConfig(ctx.getConfiguration().get("definingFeatures"));
 
         Map<String, Set<String>> regionExports = new HashMap<>();
         Set<ArtifactId> apiRegionsFeatures = new HashSet<>();
@@ -72,109 +79,90 @@ public class CheckApiRegionsCrossFeatureDups extends AbstractApiRegionsAnalyserT
             }
         }
 
-        if (definingFeatures.isEmpty()) {
-            definingFeatures =
+        if (definingFeatureNames.isEmpty()) {
+            definingFeatureNames =
                     apiRegionsFeatures.stream().map(ArtifactId::toMvnId).collect(Collectors.toSet());
         }
+        WildcardMatcher definingFeatures = new WildcardMatcher(definingFeatureNames);
+
+        // the first region exporting a package, in the iteration order of the region exports
+        Map<String, String> packageRegions = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : regionExports.entrySet()) {
+            for (String pkgName : entry.getValue()) {
+                packageRegions.putIfAbsent(pkgName, entry.getKey());
+            }
+        }
 
         FeatureDescriptor f = ctx.getFeatureDescriptor();
+        Map<PackageInfo, Set<ArtifactId>> declaringFeatures = getDeclaringFeatures(f, packageRegions.keySet());
         for (BundleDescriptor bd : f.getBundleDescriptors()) {
-            List<ArtifactId> borgs =
-                    new ArrayList<>(Arrays.asList(bd.getArtifact().getFeatureOrigins()));
-            removeDefiningFeatures(definingFeatures, borgs);
+            List<ArtifactId> borgs = new ArrayList<>();
+            for (ArtifactId feature : bd.getArtifact().getFeatureOrigins()) {
+                if (!definingFeatures.matches(feature.toMvnId())) {
+                    borgs.add(feature);
+                }
+            }
 
             if (!borgs.isEmpty()) {
                 Set<String> reportedPackages = new HashSet<>();
                 for (PackageInfo pi : bd.getExportedPackages()) {
                     String pkgName = pi.getName();
-                    for (Map.Entry<String, Set<String>> entry : regionExports.entrySet()) {
-                        if (entry.getValue().contains(pkgName) && !reportedPackages.contains(pkgName)) {
-                            if (matchesSet(pkgName, ignoredPackages)) {
-                                continue;
-                            }
-
-                            if (allOtherExportersNonDefining(pi, f, definingFeatures)) {
-                                // If all exports are done by non-defining features then that's ok
-                                continue;
-                            }
-
-                            reportedPackages.add(pi.getName());
-
-                            String msg = "Package overlap found between region " + entry.getKey()
-                                    + " and bundle " + bd.getBundleSymbolicName() + " " + bd.getBundleVersion()
-                                    + " which comes from feature: " + borgs
-                                    + ". Both export package: " + pi.getName();
-                            if (matchesSet(pkgName, warningPackages)) {
-                                ctx.reportArtifactWarning(bd.getArtifact().getId(), msg);
-                            } else {
-                                ctx.reportArtifactError(bd.getArtifact().getId(), msg);
-                            }
+                    String region = packageRegions.get(pkgName);
+                    if (region != null && !reportedPackages.contains(pkgName)) {
+                        if (ignoredPackages.matches(pkgName)) {
+                            continue;
                         }
-                    }
-                }
-            }
-        }
-    }
 
-    // Check if all exports of this package are done by non-defining features
-    private boolean allOtherExportersNonDefining(PackageInfo pi, FeatureDescriptor f, Set<String> definingFeatures) {
-        List<ArtifactId> declaringFeatures = new ArrayList<>();
+                        if (allNonDefining(declaringFeatures.get(pi), definingFeatures)) {
+                            // If all exports are done by non-defining features then that's ok
+                            continue;
+                        }
 
-        for (BundleDescriptor bd : f.getBundleDescriptors()) {
-            if (bd.getExportedPackages().contains(pi)) {
-                declaringFeatures.addAll(Arrays.asList(
-                        bd.getArtifact().getFeatureOrigins(f.getFeature().getId())));
-            }
-        }
+                        reportedPackages.add(pi.getName());
 
-        for (ArtifactId feature : declaringFeatures) {
-            for (String definingFeature : definingFeatures) {
-                if (definingFeature.endsWith("*")) {
-                    String prefix = definingFeature.substring(0, definingFeature.length() - 1);
-                    if (feature.toMvnId().startsWith(prefix)) {
-                        return false;
-                    }
-                } else {
-                    if (feature.toMvnId().equals(definingFeature)) {
-                        return false;
+                        String msg = "Package overlap found between region " + region
+                                + " and bundle " + bd.getBundleSymbolicName() + " " + bd.getBundleVersion()
+                                + " which comes from feature: " + borgs
+                                + ". Both export package: " + pi.getName();
+                        if (warningPackages.matches(pkgName)) {
+                            ctx.reportArtifactWarning(bd.getArtifact().getId(), msg);
+                        } else {
+                            ctx.reportArtifactError(bd.getArtifact().getId(), msg);
+                        }
                     }
                 }
             }
         }
-        return true;
     }
 
-    private void removeDefiningFeatures(Set<String> definingFeatures, List<ArtifactId> features) {
-        for (Iterator<ArtifactId> it = features.iterator(); it.hasNext(); ) {
-            ArtifactId feature = it.next();
-            for (String definingFeature : definingFeatures) {
-                if (definingFeature.endsWith("*")) {
-                    String prefix = definingFeature.substring(0, definingFeature.length() - 1);
-                    if (feature.toMvnId().startsWith(prefix)) {
-                        it.remove();
-                    }
-                } else {
-                    if (feature.toMvnId().equals(definingFeature)) {
-                        it.remove();
+    // Collect the features declaring each exported package, for the packages exported by a region
+    private Map<PackageInfo, Set<ArtifactId>> getDeclaringFeatures(FeatureDescriptor f, Set<String> packages) {
+        Map<PackageInfo, Set<ArtifactId>> declaringFeatures = new HashMap<>();
+        for (BundleDescriptor bd : f.getBundleDescriptors()) {
+            List<ArtifactId> features = null;
+            for (PackageInfo pi : bd.getExportedPackages()) {
+                if (packages.contains(pi.getName())) {
+                    if (features == null) {
+                        features = Arrays.asList(bd.getArtifact()
+                                .getFeatureOrigins(f.getFeature().getId()));
                     }
+                    declaringFeatures
+                            .computeIfAbsent(pi, key -> new HashSet<>())
+                            .addAll(features);
                 }
             }
         }
+        return declaringFeatures;
     }
 
-    private boolean matchesSet(String pkg, Set<String> set) {
-        for (String e : set) {
-            if (e.endsWith("*")) {
-                if (pkg.startsWith(e.substring(0, e.length() - 1))) {
-                    return true;
-                }
-            } else {
-                if (pkg.equals(e)) {
-                    return true;
-                }
+    // Check if all exports of a package are done by non-defining features
+    private boolean allNonDefining(Set<ArtifactId> declaringFeatures, WildcardMatcher definingFeatures) {
+        for (ArtifactId feature : declaringFeatures) {
+            if (definingFeatures.matches(feature.toMvnId())) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     private Set<String> splitListConfig(String value) {
@@ -18,7 +18,21 @@
  */
 package org.apache.sling.feature.extension.apiregions.analyser;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.sling.feature.analyser.task.AnalyserTaskContext;
+import org.apache.sling.feature.extension.apiregions.api.ApiExport;
 import org.apache.sling.feature.extension.apiregions.api.ApiRegion;
 import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
 import org.apache.sling.feature.scanner.BundleDescriptor;
@@ -27,6 +41,16 @@ import org.apache.sling.feature.scanner.PackageInfo;
 
 public class CheckApiRegionsDependencies extends AbstractApiRegionsAnalyserTask {
 
+    /**
+     * If enabled, packages used through a chain of uses constraints are checked as well
+     */
+    private static final String CFG_CHECK_TRANSITIVE_USES = "check-transitive-uses";
+
+    @Override
+    protected boolean useSharedApiRegions() {
+        return true;
+    }
+
     @Override
     public String getId() {
         return ApiRegions.EXTENSION_NAME + "-dependencies";
@@ -39,52 +63,264 @@ public class CheckApiRegionsDependencies extends AbstractApiRegionsAnalyserTask
 
     @Override
     protected void execute(ApiRegions apiRegions, AnalyserTaskContext ctx) throws Exception {
-        for (int i = 0; i < apiRegions.listRegions().size(); i++) {
-            for (int j = i + 1; j < apiRegions.listRegions().size(); j++) {
-                execute(
-                        ctx,
-                        apiRegions,
-                        apiRegions.listRegions().get(i),
-                        apiRegions.listRegions().get(j));
+        List<ApiRegion> regions = apiRegions.listRegions();
+
+        // the regions declaring a package
+        Map<String, BitSet> declaringRegions = new HashMap<>();
+        for (int i = 0; i < regions.size(); i++) {
+            for (ApiExport export : regions.get(i).listExports()) {
+                declaringRegions
+                        .computeIfAbsent(export.getName(), key -> new BitSet())
+                        .set(i);
             }
         }
-    }
 
-    private void execute(
-            AnalyserTaskContext ctx, ApiRegions apiRegions, ApiRegion exportingApisName, ApiRegion hidingApisName) {
         FeatureDescriptor featureDescriptor = ctx.getFeatureDescriptor();
+        boolean checkTransitiveUses =
+                Boolean.parseBoolean(ctx.getConfiguration().getOrDefault(CFG_CHECK_TRANSITIVE_USES, "false"));
+        UsesGraph usesGraph =
+                checkTransitiveUses ? new UsesGraph(featureDescriptor, declaringRegions, regions.size()) : null;
+
+        List<Finding> findings = new ArrayList<>();
         for (BundleDescriptor bundleDescriptor : featureDescriptor.getBundleDescriptors()) {
             for (PackageInfo packageInfo : bundleDescriptor.getExportedPackages()) {
                 String exportedPackage = packageInfo.getName();
-
-                if (exportingApisName.getExportByName(exportedPackage) != null) {
-                    if (hidingApisName.getExportByName(exportedPackage) != null) {
+                BitSet exporting = declaringRegions.get(exportedPackage);
+                if (exporting == null) {
+                    continue;
+                }
+                for (int i = exporting.nextSetBit(0); i >= 0; i = exporting.nextSetBit(i + 1)) {
+                    ApiRegion exportingApis = regions.get(i);
+                    for (int j = exporting.nextSetBit(i + 1); j >= 0; j = exporting.nextSetBit(j + 1)) {
                         String errorMessage = String.format(
                                 "Bundle '%s' (defined in feature '%s') exports package '%s' that is declared in both visible '%s' and non-visible '%s' APIs regions",
                                 bundleDescriptor.getArtifact().getId(),
                                 ctx.getFeature().getId(),
                                 exportedPackage,
-                                exportingApisName.getName(),
-                                hidingApisName.getName());
-                        ctx.reportArtifactError(bundleDescriptor.getArtifact().getId(), errorMessage);
-                    } else {
-                        for (String uses : packageInfo.getUses()) {
-                            if (hidingApisName.getExportByName(uses) != null) {
+                                exportingApis.getName(),
+                                regions.get(j).getName());
+                        findings.add(new Finding(i, j, bundleDescriptor, errorMessage));
+                    }
+                    for (String uses : packageInfo.getUses()) {
+                        BitSet hiding = declaringRegions.get(uses);
+                        if (hiding == null) {
+                            continue;
+                        }
+                        for (int j = hiding.nextSetBit(i + 1); j >= 0; j = hiding.nextSetBit(j + 1)) {
+                            if (!exporting.get(j)) {
                                 String errorMessage = String.format(
                                         "Bundle '%s' (defined in feature '%s') exports package '%s' that is declared in the visible '%s' region, which uses package '%s' that is in the non-visible '%s' region",
                                         bundleDescriptor.getArtifact().getId(),
                                         ctx.getFeature().getId(),
                                         exportedPackage,
-                                        exportingApisName.getName(),
+                                        exportingApis.getName(),
+                                        uses,
+                                        regions.get(j).getName());
+                                findings.add(new Finding(i, j, bundleDescriptor, errorMessage));
+                            }
+                        }
+                    }
+                    if (usesGraph != null) {
+                        for (int j = i + 1; j < regions.size(); j++) {
+                            if (exporting.get(j)) {
+                                continue;
+                            }
+                            String uses = usesGraph.getTransitiveUse(packageInfo.getUses(), j);
+                            if (uses != null) {
+                                String errorMessage = String.format(
+                                        "Bundle '%s' (defined in feature '%s') exports package '%s' that is declared in the visible '%s' region, which transitively uses package '%s' that is in the non-visible '%s' region",
+                                        bundleDescriptor.getArtifact().getId(),
+                                        ctx.getFeature().getId(),
+                                        exportedPackage,
+                                        exportingApis.getName(),
                                         uses,
-                                        hidingApisName.getName());
-                                ctx.reportArtifactError(
-                                        bundleDescriptor.getArtifact().getId(), errorMessage);
+                                        regions.get(j).getName());
+                                findings.add(new Finding(i, j, bundleDescriptor, errorMessage));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // report grouped by pair of regions, in the same order as checking each pair of regions
+        findings.sort(Comparator.comparingInt((Finding f) -> f.exportingRegion).thenComparingInt(f -> f.hidingRegion));
+        for (Finding finding : findings) {
+            ctx.reportArtifactError(finding.bundle.getArtifact().getId(), finding.message);
+        }
+    }
+
+    private static final class Finding {
+
+        final int exportingRegion;
+
+        final int hidingRegion;
+
+        final BundleDescriptor bundle;
+
+        final String message;
+
+        Finding(int exportingRegion, int hidingRegion, BundleDescriptor bundle, String message) {
+            this.exportingRegion = exportingRegion;
+            this.hidingRegion = hidingRegion;
+            this.bundle = bundle;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The uses constraints of all packages exported in the feature. For each package
+     * the graph knows, per region, one package declared in that region which is
+     * reachable through uses constraints. This is calculated once for the whole
+     * graph on its strongly connected components.
+     */
+    private static final class UsesGraph {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private final List<String> names = new ArrayList<>();
+
+        private final List<Set<Integer>> edges = new ArrayList<>();
+
+        private final Map<String, BitSet> declaringRegions;
+
+        /** Per package and region a reachable package declared in the region, or {@code null} */
+        private final String[][] reachable;
+
+        UsesGraph(FeatureDescriptor featureDescriptor, Map<String, BitSet> declaringRegions, int regionCount) {
+            this.declaringRegions = declaringRegions;
+            for (BundleDescriptor bundleDescriptor : featureDescriptor.getBundleDescriptors()) {
+                for (PackageInfo packageInfo : bundleDescriptor.getExportedPackages()) {
+                    int from = getId(packageInfo.getName());
+                    for (String uses : packageInfo.getUses()) {
+                        int to = getId(uses);
+                        edges.get(from).add(to);
+                    }
+                }
+            }
+            this.reachable = new String[names.size()][];
+            calculateReachable(regionCount);
+        }
+
+        private int getId(String name) {
+            return ids.computeIfAbsent(name, key -> {
+                names.add(key);
+                edges.add(new LinkedHashSet<>());
+                return names.size() - 1;
+            });
+        }
+
+        /**
+         * Get a package declared in the region which is not used directly but
+         * through a chain of uses constraints of the given packages.
+         *
+         * @return The package or {@code null}
+         */
+        String getTransitiveUse(Set<String> uses, int region) {
+            for (String name : uses) {
+                BitSet declaring = declaringRegions.get(name);
+                if (declaring != null && declaring.get(region)) {
+                    // used directly
+                    return null;
+                }
+            }
+            for (String name : uses) {
+                Integer id = ids.get(name);
+                if (id != null && reachable[id][region] != null) {
+                    return reachable[id][region];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Tarjan's algorithm, a component is completed after all components reachable
+         * from it. The reachable packages of a component are the packages declared by
+         * its members plus the reachable packages of the components they use.
+         */
+        private void calculateReachable(int regionCount) {
+            int count = names.size();
+            int[] index = new int[count];
+            int[] low = new int[count];
+            boolean[] onStack = new boolean[count];
+            List<Iterator<Integer>> successors = new ArrayList<>(count);
+            Arrays.fill(index, -1);
+            for (int i = 0; i < count; i++) {
+                successors.add(edges.get(i).iterator());
+            }
+            Deque<Integer> stack = new ArrayDeque<>();
+            Deque<Integer> callStack = new ArrayDeque<>();
+            int counter = 0;
+
+            for (int start = 0; start < count; start++) {
+                if (index[start] != -1) {
+                    continue;
+                }
+                index[start] = low[start] = counter++;
+                stack.push(start);
+                onStack[start] = true;
+                callStack.push(start);
+                while (!callStack.isEmpty()) {
+                    int v = callStack.peek();
+                    if (successors.get(v).hasNext()) {
+                        int w = successors.get(v).next();
+                        if (index[w] == -1) {
+                            index[w] = low[w] = counter++;
+                            stack.push(w);
+                            onStack[w] = true;
+                            callStack.push(w);
+                        } else if (onStack[w]) {
+                            low[v] = Math.min(low[v], index[w]);
+                        }
+                    } else {
+                        callStack.pop();
+                        if (!callStack.isEmpty()) {
+                            int u = callStack.peek();
+                            low[u] = Math.min(low[u], low[v]);
+                        }
+                        if (low[v] == index[v]) {
+                            List<Integer> component = new ArrayList<>();
+                            int w;
+                            do {
+                                w = stack.pop();
+                                onStack[w] = false;
+                                component.add(w);
+                            } while (w != v);
+                            completeComponent(component, regionCount);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void completeComponent(List<Integer> component, int regionCount) {
+            String[] result = new String[regionCount];
+            for (int member : component) {
+                BitSet declaring = declaringRegions.get(names.get(member));
+                if (declaring != null) {
+                    for (int r = declaring.nextSetBit(0); r >= 0; r = declaring.nextSetBit(r + 1)) {
+                        if (result[r] == null) {
+                            result[r] = names.get(member);
+                        }
+                    }
+                }
+            }
+            for (int member : component) {
+                for (int successor : edges.get(member)) {
+                    // successors outside of the component are already completed
+                    String[] other = reachable[successor];
+                    if (other != null) {
+                        for (int r = 0; r < regionCount; r++) {
+                            if (result[r] == null) {
+                                result[r] = other[r];
                             }
                         }
                     }
                 }
             }
+            for (int member : component) {
+                reachable[member] = result;
+            }
         }
     }
 }
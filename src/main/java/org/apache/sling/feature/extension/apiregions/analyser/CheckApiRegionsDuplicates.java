@@ -18,10 +18,14 @@
  */
 package org.apache.sling.feature.extension.apiregions.analyser;
 
+import java.util.BitSet;
 import java.util.Formatter;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.sling.feature.analyser.task.AnalyserTaskContext;
 import org.apache.sling.feature.extension.apiregions.api.ApiExport;
@@ -30,6 +34,11 @@ import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
 
 public class CheckApiRegionsDuplicates extends AbstractApiRegionsAnalyserTask {
 
+    @Override
+    protected boolean useSharedApiRegions() {
+        return true;
+    }
+
     @Override
     public String getId() {
         return ApiRegions.EXTENSION_NAME + "-duplicates";
@@ -42,45 +51,48 @@ public class CheckApiRegionsDuplicates extends AbstractApiRegionsAnalyserTask {
 
     @Override
     protected void execute(ApiRegions apiRegions, AnalyserTaskContext ctx) throws Exception {
-        for (int i = 0; i < apiRegions.listRegions().size(); i++) {
-            ApiRegion sourceRegion = apiRegions.listRegions().get(i);
-            List<ApiRegion> targetRegions = apiRegions
-                    .listRegions()
-                    .subList(i + 1, apiRegions.listRegions().size());
+        List<ApiRegion> regions = apiRegions.listRegions();
 
-            for (ApiRegion targetRegion : targetRegions) {
-                if (sourceRegion.equals(targetRegion)) {
-                    continue;
-                }
-
-                Set<String> intersection = calculateIntersection(sourceRegion, targetRegion);
-                if (!intersection.isEmpty()) {
-                    Formatter formatter = new Formatter();
-                    formatter.format(
-                            "Regions '%s' and '%s' defined in feature '%s' declare both %s package(s):%n",
-                            sourceRegion.getName(),
-                            targetRegion.getName(),
-                            ctx.getFeature().getId(),
-                            intersection.size());
-                    intersection.forEach(api -> formatter.format(" * %s%n", api));
-
-                    ctx.reportError(formatter.toString());
+        // the regions declaring a package
+        Map<String, BitSet> declaringRegions = new HashMap<>();
+        for (int i = 0; i < regions.size(); i++) {
+            for (ApiExport export : regions.get(i).listExports()) {
+                declaringRegions
+                        .computeIfAbsent(export.getName(), key -> new BitSet())
+                        .set(i);
+            }
+        }
 
-                    formatter.close();
+        // the packages declared by a pair of regions, keyed and sorted by the pair
+        Map<Integer, Set<String>> intersections = new TreeMap<>();
+        for (int i = 0; i < regions.size(); i++) {
+            for (ApiExport export : regions.get(i).listExports()) {
+                BitSet declaring = declaringRegions.get(export.getName());
+                for (int j = declaring.nextSetBit(i + 1); j >= 0; j = declaring.nextSetBit(j + 1)) {
+                    intersections
+                            .computeIfAbsent(i * regions.size() + j, key -> new HashSet<>())
+                            .add(export.getName());
                 }
             }
         }
-    }
 
-    private static Set<String> calculateIntersection(ApiRegion source, ApiRegion target) {
-        final Set<String> intersection = new HashSet<>();
+        for (Map.Entry<Integer, Set<String>> entry : intersections.entrySet()) {
+            ApiRegion sourceRegion = regions.get(entry.getKey() / regions.size());
+            ApiRegion targetRegion = regions.get(entry.getKey() % regions.size());
+            Set<String> intersection = entry.getValue();
 
-        for (ApiExport packageName : source.listExports()) {
-            if (target.getExportByName(packageName.getName()) != null) {
-                intersection.add(packageName.getName());
-            }
-        }
+            Formatter formatter = new Formatter();
+            formatter.format(
+                    "Regions '%s' and '%s' defined in feature '%s' declare both %s package(s):%n",
+                    sourceRegion.getName(),
+                    targetRegion.getName(),
+                    ctx.getFeature().getId(),
+                    intersection.size());
+            intersection.forEach(api -> formatter.format(" * %s%n", api));
+
+            ctx.reportError(formatter.toString());
 
-        return intersection;
+            formatter.close();
+        }
     }
 }
@@ -27,6 +27,11 @@ import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
 
 public class CheckApiRegionsOrder extends AbstractApiRegionsAnalyserTask {
 
+    @Override
+    protected boolean useSharedApiRegions() {
+        return true;
+    }
+
     @Override
     public String getId() {
         return ApiRegions.EXTENSION_NAME + "-check-order";
@@ -19,16 +19,13 @@
 package org.apache.sling.feature.extension.apiregions.analyser;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.analyser.task.AnalyserTask;
@@ -65,11 +62,11 @@ public class CheckDeprecatedApi implements AnalyserTask {
 
     @Override
     public void execute(final AnalyserTaskContext context) throws Exception {
-        final ApiRegions regions = ApiRegions.getApiRegions(context.getFeature());
+        final ApiRegions regions = ApiRegionsCache.getApiRegions(context.getFeature());
         if (regions == null) {
             context.reportExtensionError(ApiRegions.EXTENSION_NAME, "No regions configured");
         } else {
-            final Map<BundleDescriptor, Set<String>> bundleRegions = this.calculateBundleRegions(context, regions);
+            final RegionAnalysisIndex index = RegionAnalysisIndex.getIndex(context.getFeatureDescriptor(), regions);
             final boolean strict =
                     Boolean.parseBoolean(context.getConfiguration().getOrDefault(CFG_STRICT, "false"));
             final Integer removalPeriod =
@@ -77,30 +74,39 @@ public class CheckDeprecatedApi implements AnalyserTask {
             final boolean checkOptionalImports =
                     Boolean.parseBoolean(context.getConfiguration().getOrDefault(CFG_CHECK_OPTIONAL_IMPORTS, "false"));
             final String regionNames = context.getConfiguration().getOrDefault(CFG_REGIONS, ApiRegion.GLOBAL);
+            final List<ApiRegion> checkedRegions = new ArrayList<>();
+            for (final String r : regionNames.split(",")) {
+                final ApiRegion region = regions.getRegionByName(r.trim());
+                if (region != null) {
+                    checkedRegions.add(region);
+                }
+            }
+            // the deprecated packages of all checked regions and their parents, calculated once
+            final Map<ApiRegion, Map<String, DeprecatedPackage>> declaredPackages =
+                    this.calculateDeclaredDeprecatedPackages(index, checkedRegions);
             for (final String r : regionNames.split(",")) {
                 final ApiRegion region = regions.getRegionByName(r.trim());
                 if (region == null) {
                     context.reportExtensionError(ApiRegions.EXTENSION_NAME, "Region not found:" + r.trim());
                 } else {
-                    checkBundlesForRegion(context, region, bundleRegions, strict, removalPeriod, checkOptionalImports);
+                    checkBundlesForRegion(
+                            context,
+                            index,
+                            region,
+                            this.calculateDeprecatedPackages(declaredPackages, region),
+                            strict,
+                            removalPeriod,
+                            checkOptionalImports);
                 }
             }
         }
     }
 
-    private Map<BundleDescriptor, Set<String>> calculateBundleRegions(AnalyserTaskContext context, ApiRegions regions) {
-        final Map<BundleDescriptor, Set<String>> result = new LinkedHashMap<>();
-        for (final BundleDescriptor bd : context.getFeatureDescriptor().getBundleDescriptors()) {
-            final Set<String> regionNames = getBundleRegions(bd, regions);
-            result.put(bd, regionNames);
-        }
-        return result;
-    }
-
     private void checkBundlesForRegion(
             final AnalyserTaskContext context,
+            final RegionAnalysisIndex index,
             final ApiRegion region,
-            final Map<BundleDescriptor, Set<String>> bundleRegions,
+            final Map<String, DeprecatedPackage> deprecatedPackages,
             final boolean strict,
             final int removalPeriod,
             final boolean checkOptionalImports) {
@@ -114,16 +120,14 @@ public class CheckDeprecatedApi implements AnalyserTask {
             checkDate = null;
         }
 
-        final Map<String, DeprecatedPackage> deprecatedPackages =
-                this.calculateDeprecatedPackages(region, bundleRegions);
-
-        final Set<String> allowedNames = getAllowedRegions(region);
+        final int ordinal = index.getApiRegions().getRegionOrdinal(region);
+        final BitSet allowedRegions = getAllowedRegions(index.getApiRegions(), region);
 
         for (final BundleDescriptor bd : context.getFeatureDescriptor().getBundleDescriptors()) {
-            if (isInAllowedRegion(bundleRegions.get(bd), region.getName(), allowedNames)) {
-                // Collect all deprecation findings, grouped by library (null = no library)
-                final Map<String, String> libraryErrors = new TreeMap<>();
-                final Map<String, String> libraryWarnings = new TreeMap<>();
+            if (isInAllowedRegion(index.getBundleRegions(bd), ordinal, allowedRegions)) {
+                // Collect the deprecation findings of libraries, grouped by library
+                final Map<String, DeprecatedApiFinding> libraryErrors = new TreeMap<>();
+                final Map<String, DeprecatedApiFinding> libraryWarnings = new TreeMap<>();
 
                 for (final PackageInfo pi : bd.getImportedPackages()) {
                     if (!checkOptionalImports && pi.isOptional()) {
@@ -141,82 +145,76 @@ public class CheckDeprecatedApi implements AnalyserTask {
                         } else {
                             isError = strict;
                         }
-                        String msg;
-                        final String library = deprecatedPackage.getExport().getLibrary();
-                        if (library != null) {
-                            msg = "Usage of deprecated library found : "
-                                    .concat(library)
-                                    .concat(", package(s) : <start>");
-                        } else {
-                            msg = "Usage of deprecated package found : ";
-                        }
-                        msg = msg.concat(pi.getName());
-                        if (library != null) {
-                            msg = msg.concat("<end>");
-                        }
-                        msg = msg.concat(" : ").concat(deprecationInfo.getMessage());
-
-                        if (deprecationInfo.getSince() != null) {
-                            msg = msg.concat(" Deprecated since ").concat(deprecationInfo.getSince());
-                        }
-                        if (deprecationInfo.isForRemoval()) {
-                            boolean printRemoval = true;
-                            if (checkDate != null) {
-                                final Calendar c = deprecationInfo.getForRemovalBy();
-                                if (c != null && c.before(checkDate)) {
-                                    isError = true;
-                                    printRemoval = false;
-                                    msg = msg.concat(" The package is scheduled to be removed in less than ")
-                                            .concat(String.valueOf(removalPeriod))
-                                            .concat(" days by ")
-                                            .concat(deprecationInfo.getForRemoval());
-                                }
-                            }
-                            if (printRemoval) {
-                                msg = msg.concat(" For removal : ").concat(deprecationInfo.getForRemoval());
+                        boolean removalImminent = false;
+                        if (deprecationInfo.isForRemoval() && checkDate != null) {
+                            final Calendar c = deprecationInfo.getForRemovalBy();
+                            if (c != null && c.before(checkDate)) {
+                                isError = true;
+                                removalImminent = true;
                             }
                         }
+                        final String library = deprecatedPackage.getExport().getLibrary();
                         if (library != null) {
-                            final Map<String, String> target = isError ? libraryErrors : libraryWarnings;
+                            final Map<String, DeprecatedApiFinding> target = isError ? libraryErrors : libraryWarnings;
                             // check if entry exists for library
-                            String entry = target.get(library);
+                            final DeprecatedApiFinding entry = target.get(library);
                             if (entry == null) {
-                                entry = msg;
+                                target.put(
+                                        library,
+                                        new DeprecatedApiFinding(
+                                                bd.getArtifact().getId(),
+                                                library,
+                                                pi.getName(),
+                                                isError,
+                                                deprecationInfo,
+                                                removalImminent ? removalPeriod : -1));
                             } else {
-                                entry = entry.replace(
-                                        "<end>", ", ".concat(pi.getName()).concat("<end>"));
+                                entry.addPackage(pi.getName());
                             }
-                            target.put(library, entry);
                         } else {
-                            if (isError) {
-                                context.reportArtifactError(bd.getArtifact().getId(), msg);
-                            } else {
-                                context.reportArtifactWarning(bd.getArtifact().getId(), msg);
-                            }
+                            report(
+                                    context,
+                                    new DeprecatedApiFinding(
+                                            bd.getArtifact().getId(),
+                                            null,
+                                            pi.getName(),
+                                            isError,
+                                            deprecationInfo,
+                                            removalImminent ? removalPeriod : -1));
                         }
                     }
                 }
 
-                // Report grouped messages per library
-                for (final String entry : libraryErrors.values()) {
-                    context.reportArtifactError(
-                            bd.getArtifact().getId(),
-                            entry.replace("<start>", "").replace("<end>", ""));
+                // Report grouped findings per library
+                for (final DeprecatedApiFinding entry : libraryErrors.values()) {
+                    report(context, entry);
                 }
-                for (final String entry : libraryWarnings.values()) {
-                    context.reportArtifactWarning(
-                            bd.getArtifact().getId(),
-                            entry.replace("<start>", "").replace("<end>", ""));
+                for (final DeprecatedApiFinding entry : libraryWarnings.values()) {
+                    report(context, entry);
                 }
             }
         }
     }
 
-    boolean isInAllowedRegion(
-            final Set<String> bundleRegions, final String regionName, final Set<String> allowedRegions) {
-        if (bundleRegions.contains(regionName)) {
-            for (final String name : bundleRegions) {
-                if (!allowedRegions.contains(name)) {
+    /**
+     * Report a finding. The finding is reported as an artifact error or warning
+     * for the bundle using the deprecated api.
+     *
+     * @param context The analyser context
+     * @param finding The finding
+     */
+    void report(final AnalyserTaskContext context, final DeprecatedApiFinding finding) {
+        if (finding.isError()) {
+            context.reportArtifactError(finding.getArtifactId(), finding.getMessage());
+        } else {
+            context.reportArtifactWarning(finding.getArtifactId(), finding.getMessage());
+        }
+    }
+
+    boolean isInAllowedRegion(final BitSet bundleRegions, final int regionOrdinal, final BitSet allowedRegions) {
+        if (regionOrdinal != -1 && bundleRegions.get(regionOrdinal)) {
+            for (int i = bundleRegions.nextSetBit(0); i >= 0; i = bundleRegions.nextSetBit(i + 1)) {
+                if (!allowedRegions.get(i)) {
                     return false;
                 }
             }
@@ -225,27 +223,45 @@ public class CheckDeprecatedApi implements AnalyserTask {
         return false;
     }
 
-    Set<String> getAllowedRegions(final ApiRegion region) {
-        final Set<String> allowedNames = new HashSet<>();
-        ApiRegion r = region;
-        while (r != null) {
-            allowedNames.add(r.getName());
-            r = r.getParent();
-        }
+    BitSet getAllowedRegions(final ApiRegions regions, final ApiRegion region) {
+        return regions.getInheritedRegionMask(region);
+    }
 
-        return allowedNames;
+    /**
+     * Calculate the deprecated packages declared by each of the regions and their parents.
+     * Each region is only processed once, even if it is the parent of several regions.
+     */
+    Map<ApiRegion, Map<String, DeprecatedPackage>> calculateDeclaredDeprecatedPackages(
+            final RegionAnalysisIndex index, final List<ApiRegion> regions) {
+        final Map<ApiRegion, Map<String, DeprecatedPackage>> result = new IdentityHashMap<>();
+        for (final ApiRegion region : regions) {
+            ApiRegion current = region;
+            while (current != null && !result.containsKey(current)) {
+                final Map<String, DeprecatedPackage> declared = new HashMap<>();
+                for (final ApiExport export : current.listExports()) {
+                    if (export.getDeprecation().getPackageInfo() != null) {
+                        declared.put(export.getName(), getDeprecatedPackage(index, current, export));
+                    }
+                }
+                result.put(current, declared);
+                current = current.getParent();
+            }
+        }
+        return result;
     }
 
+    /**
+     * Get the deprecated packages visible in a region, a package declared in
+     * the region itself takes precedence over the parent regions.
+     */
     Map<String, DeprecatedPackage> calculateDeprecatedPackages(
-            final ApiRegion region, final Map<BundleDescriptor, Set<String>> bundleRegions) {
+            final Map<ApiRegion, Map<String, DeprecatedPackage>> declaredPackages, final ApiRegion region) {
         final Map<String, DeprecatedPackage> result = new HashMap<>();
         ApiRegion current = region;
         while (current != null) {
-            for (final ApiExport export : current.listExports()) {
-                if (export.getDeprecation().getPackageInfo() != null && !result.containsKey(export.getName())) {
-                    final DeprecatedPackage pck = getDeprecatedPackage(bundleRegions, current, export);
-                    result.put(export.getName(), pck);
-                }
+            for (final Map.Entry<String, DeprecatedPackage> entry :
+                    declaredPackages.get(current).entrySet()) {
+                result.putIfAbsent(entry.getKey(), entry.getValue());
             }
             current = current.getParent();
         }
@@ -253,16 +269,17 @@ public class CheckDeprecatedApi implements AnalyserTask {
     }
 
     DeprecatedPackage getDeprecatedPackage(
-            final Map<BundleDescriptor, Set<String>> bundleRegions, final ApiRegion region, final ApiExport export) {
+            final RegionAnalysisIndex index, final ApiRegion region, final ApiExport export) {
         final List<PackageInfo> deprecatedList = new ArrayList<>();
         final List<PackageInfo> nonDeprecatedList = new ArrayList<>();
 
         final ArtifactId[] regionOrigins = region.getFeatureOrigins();
 
-        for (final Map.Entry<BundleDescriptor, Set<String>> entry : bundleRegions.entrySet()) {
-            final ArtifactId[] bundleOrigins = entry.getKey().getArtifact().getFeatureOrigins();
-            if (entry.getValue().contains(region.getName())) {
-                for (final PackageInfo info : entry.getKey().getExportedPackages()) {
+        final int regionOrdinal = index.getApiRegions().getRegionOrdinal(region);
+        for (final BundleDescriptor bd : index.getExporters(export.getName())) {
+            final ArtifactId[] bundleOrigins = bd.getArtifact().getFeatureOrigins();
+            if (regionOrdinal != -1 && index.getBundleRegions(bd).get(regionOrdinal)) {
+                for (final PackageInfo info : bd.getExportedPackages()) {
                     if (info.getName().equals(export.getName())) {
                         if (regionOrigins.length == 0
                                 || (bundleOrigins.length > 0 && bundleOrigins[0].isSame(regionOrigins[0]))) {
@@ -277,14 +294,6 @@ public class CheckDeprecatedApi implements AnalyserTask {
         return new DeprecatedPackage(export, deprecatedList, nonDeprecatedList);
     }
 
-    private Set<String> getBundleRegions(final BundleDescriptor info, final ApiRegions regions) {
-        return Stream.of(info.getArtifact().getFeatureOrigins())
-                .map(regions::getRegionsByFeature)
-                .flatMap(Stream::of)
-                .map(ApiRegion::getName)
-                .collect(Collectors.toSet());
-    }
-
     /**
      * Represents a deprecated package with its deprecation information and package versions.
      */
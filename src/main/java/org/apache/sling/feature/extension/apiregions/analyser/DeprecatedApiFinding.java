@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.extension.apiregions.api.DeprecationInfo;
+
+/**
+ * The usage of deprecated api by a bundle, as found by {@link CheckDeprecatedApi}.
+ * A finding is either about a single deprecated package or about a deprecated
+ * library, in which case it contains all packages of the library used by the bundle.
+ * The deprecation details are taken from the first package found.
+ */
+final class DeprecatedApiFinding {
+
+    private final ArtifactId artifactId;
+
+    private final String library;
+
+    private final List<String> packages = new ArrayList<>();
+
+    private final boolean error;
+
+    private final DeprecationInfo deprecationInfo;
+
+    private final int removalPeriod;
+
+    /**
+     * Create a new finding
+     *
+     * @param artifactId The bundle using the api
+     * @param library The library or {@code null}
+     * @param packageName The first package
+     * @param error Whether the finding is an error
+     * @param deprecationInfo The deprecation info of the first package
+     * @param removalPeriod The removal period in days if the package is removed within
+     *        that period, {@code -1} otherwise
+     */
+    DeprecatedApiFinding(
+            final ArtifactId artifactId,
+            final String library,
+            final String packageName,
+            final boolean error,
+            final DeprecationInfo deprecationInfo,
+            final int removalPeriod) {
+        this.artifactId = artifactId;
+        this.library = library;
+        this.packages.add(packageName);
+        this.error = error;
+        this.deprecationInfo = deprecationInfo;
+        this.removalPeriod = removalPeriod;
+    }
+
+    void addPackage(final String packageName) {
+        this.packages.add(packageName);
+    }
+
+    /**
+     * The bundle using the deprecated api
+     *
+     * @return The artifact id of the bundle
+     */
+    public ArtifactId getArtifactId() {
+        return artifactId;
+    }
+
+    /**
+     * The deprecated library
+     *
+     * @return The library or {@code null} if the finding is about a single package
+     */
+    public String getLibrary() {
+        return library;
+    }
+
+    /**
+     * The deprecated packages used by the bundle
+     *
+     * @return An unmodifiable list of package names, never empty
+     */
+    public List<String> getPackages() {
+        return Collections.unmodifiableList(packages);
+    }
+
+    /**
+     * Whether the finding is an error or a warning
+     *
+     * @return {@code true} for an error
+     */
+    public boolean isError() {
+        return error;
+    }
+
+    /**
+     * The deprecation message
+     *
+     * @return The message
+     */
+    public String getDeprecationMessage() {
+        return deprecationInfo.getMessage();
+    }
+
+    /**
+     * Since when the api is deprecated
+     *
+     * @return The since information or {@code null}
+     */
+    public String getSince() {
+        return deprecationInfo.getSince();
+    }
+
+    /**
+     * When the api is removed
+     *
+     * @return The for removal information or {@code null}
+     */
+    public String getForRemoval() {
+        return deprecationInfo.getForRemoval();
+    }
+
+    /**
+     * Whether the api is removed within the configured removal period
+     *
+     * @return {@code true} if the removal is imminent
+     */
+    public boolean isRemovalImminent() {
+        return removalPeriod > 0;
+    }
+
+    /**
+     * Render the finding as a message
+     *
+     * @return The message
+     */
+    public String getMessage() {
+        final StringBuilder sb = new StringBuilder();
+        if (library != null) {
+            sb.append("Usage of deprecated library found : ")
+                    .append(library)
+                    .append(", package(s) : ")
+                    .append(String.join(", ", packages));
+        } else {
+            sb.append("Usage of deprecated package found : ").append(packages.get(0));
+        }
+        sb.append(" : ").append(deprecationInfo.getMessage());
+        if (deprecationInfo.getSince() != null) {
+            sb.append(" Deprecated since ").append(deprecationInfo.getSince());
+        }
+        if (deprecationInfo.isForRemoval()) {
+            if (isRemovalImminent()) {
+                sb.append(" The package is scheduled to be removed in less than ")
+                        .append(removalPeriod)
+                        .append(" days by ")
+                        .append(deprecationInfo.getForRemoval());
+            } else {
+                sb.append(" For removal : ").append(deprecationInfo.getForRemoval());
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.function.Predicate;
+
+/**
+ * Small cache for data derived from an object, looked up by the identity of
+ * that object. The keys are weakly referenced and at most one value is kept
+ * per key. The least recently added values are dropped once the cache is full.
+ * The cache can be used concurrently.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class IdentityCache<K, V> {
+
+    private final int maxEntries;
+
+    private final LinkedList<Entry<K, V>> entries = new LinkedList<>();
+
+    private static final class Entry<K, V> {
+
+        final WeakReference<K> key;
+
+        final V value;
+
+        Entry(final K key, final V value) {
+            this.key = new WeakReference<>(key);
+            this.value = value;
+        }
+    }
+
+    /**
+     * Create a new cache
+     *
+     * @param maxEntries The maximum number of cached values
+     */
+    IdentityCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the value for the key. A value which is not valid anymore is removed.
+     *
+     * @param key The key
+     * @param valid Checks whether the cached value is still valid
+     * @return The value or {@code null}
+     */
+    synchronized V get(final K key, final Predicate<V> valid) {
+        final Iterator<Entry<K, V>> iter = this.entries.iterator();
+        while (iter.hasNext()) {
+            final Entry<K, V> entry = iter.next();
+            final K cached = entry.key.get();
+            if (cached == null) {
+                iter.remove();
+            } else if (cached == key) {
+                if (valid.test(entry.value)) {
+                    return entry.value;
+                }
+                iter.remove();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put a value into the cache, replacing the value for the same key
+     *
+     * @param key The key
+     * @param value The value
+     */
+    synchronized void put(final K key, final V value) {
+        this.entries.removeIf(entry -> entry.key.get() == key);
+        this.entries.addFirst(new Entry<>(key, value));
+        while (this.entries.size() > this.maxEntries) {
+            this.entries.removeLast();
+        }
+    }
+}
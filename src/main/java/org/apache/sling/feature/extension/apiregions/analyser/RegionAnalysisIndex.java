@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegion;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
+import org.apache.sling.feature.scanner.BundleDescriptor;
+import org.apache.sling.feature.scanner.FeatureDescriptor;
+import org.apache.sling.feature.scanner.PackageInfo;
+
+/**
+ * Derived data about the bundles of a feature and their regions. All analyser
+ * tasks of a run analyse the same feature descriptor, the index is therefore
+ * calculated once and shared between the tasks.
+ * Indexes are looked up by the identity of the feature descriptor and of the
+ * frozen api regions, see {@link ApiRegionsCache}.
+ * The index is immutable and can be used concurrently.
+ */
+final class RegionAnalysisIndex {
+
+    /** Maximum number of cached indexes */
+    private static final int MAX_ENTRIES = 4;
+
+    private static final IdentityCache<FeatureDescriptor, RegionAnalysisIndex> CACHE = new IdentityCache<>(MAX_ENTRIES);
+
+    /**
+     * Get the index for the feature descriptor and the api regions. The index is
+     * only cached for frozen api regions, for mutable regions a new index is
+     * calculated on each call.
+     *
+     * @param descriptor The feature descriptor
+     * @param apiRegions The api regions
+     * @return The index
+     */
+    static RegionAnalysisIndex getIndex(final FeatureDescriptor descriptor, final ApiRegions apiRegions) {
+        if (!apiRegions.isFrozen()) {
+            return new RegionAnalysisIndex(descriptor, apiRegions);
+        }
+        final int bundleCount = descriptor.getBundleDescriptors().size();
+        final RegionAnalysisIndex cached =
+                CACHE.get(descriptor, i -> i.apiRegions == apiRegions && i.bundleCount == bundleCount);
+        if (cached != null) {
+            return cached;
+        }
+        final RegionAnalysisIndex index = new RegionAnalysisIndex(descriptor, apiRegions);
+        CACHE.put(descriptor, index);
+        return index;
+    }
+
+    private final ApiRegions apiRegions;
+
+    private final int bundleCount;
+
+    private final Map<BundleDescriptor, BitSet> bundleRegions = new IdentityHashMap<>();
+
+    private final Map<String, List<BundleDescriptor>> exporters = new HashMap<>();
+
+    private RegionAnalysisIndex(final FeatureDescriptor descriptor, final ApiRegions apiRegions) {
+        this.apiRegions = apiRegions;
+        this.bundleCount = descriptor.getBundleDescriptors().size();
+        for (final BundleDescriptor bd : descriptor.getBundleDescriptors()) {
+            this.bundleRegions.put(bd, calculateBundleRegions(bd));
+            for (final PackageInfo pck : bd.getExportedPackages()) {
+                final List<BundleDescriptor> list =
+                        this.exporters.computeIfAbsent(pck.getName(), key -> new ArrayList<>());
+                // a bundle might export a package in several versions
+                if (list.isEmpty() || list.get(list.size() - 1) != bd) {
+                    list.add(bd);
+                }
+            }
+        }
+    }
+
+    /**
+     * The api regions this index is based on
+     *
+     * @return The api regions
+     */
+    ApiRegions getApiRegions() {
+        return this.apiRegions;
+    }
+
+    /**
+     * Get the regions of a bundle, calculated from the feature origins of the bundle.
+     * The returned bit set must not be modified.
+     *
+     * @param bd The bundle
+     * @return The region mask, empty if the bundle is not in any region
+     * @see ApiRegions#getRegionOrdinal(ApiRegion)
+     */
+    BitSet getBundleRegions(final BundleDescriptor bd) {
+        final BitSet result = this.bundleRegions.get(bd);
+        return result != null ? result : calculateBundleRegions(bd);
+    }
+
+    /**
+     * Get the regions having the feature as an origin
+     * The returned bit set must not be modified.
+     *
+     * @param featureId The feature
+     * @return The region mask, might be empty
+     */
+    BitSet getRegionsByFeature(final ArtifactId featureId) {
+        return this.apiRegions.getRegionMaskByFeature(featureId);
+    }
+
+    /**
+     * Get the region and all its parents
+     * The returned bit set must not be modified.
+     *
+     * @param region The region
+     * @return The region mask, empty if the region is unknown
+     */
+    BitSet getAllowedRegions(final ApiRegion region) {
+        return this.apiRegions.getInheritedRegionMask(region);
+    }
+
+    /**
+     * Get all bundles of the feature exporting the package, in any version
+     *
+     * @param packageName The package name
+     * @return The bundles in the order of the feature, might be empty
+     */
+    List<BundleDescriptor> getExporters(final String packageName) {
+        final List<BundleDescriptor> result = this.exporters.get(packageName);
+        return result == null ? Collections.emptyList() : Collections.unmodifiableList(result);
+    }
+
+    private BitSet calculateBundleRegions(final BundleDescriptor bd) {
+        final BitSet result = new BitSet();
+        for (final ArtifactId feature : bd.getArtifact().getFeatureOrigins()) {
+            result.or(this.getRegionsByFeature(feature));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled list of patterns as used in the configuration of the analyser tasks.
+ * A pattern ending with {@code *} matches all names starting with the pattern,
+ * any other pattern matches the name exactly.
+ * Exact names are kept in a hash set and prefixes in a trie, matching a name
+ * therefore only depends on the length of the name, not on the number of patterns.
+ * A matcher is immutable and can be used concurrently.
+ */
+final class WildcardMatcher {
+
+    private static final class Node {
+
+        final Map<Character, Node> children = new HashMap<>();
+
+        /** A prefix ends at this node */
+        boolean prefix;
+    }
+
+    private final Set<String> names = new HashSet<>();
+
+    private final Node root = new Node();
+
+    /**
+     * Compile the patterns
+     *
+     * @param patterns The patterns
+     */
+    WildcardMatcher(final Collection<String> patterns) {
+        for (final String p : patterns) {
+            if (p.endsWith("*")) {
+                Node node = root;
+                for (int i = 0; i < p.length() - 1; i++) {
+                    node = node.children.computeIfAbsent(p.charAt(i), key -> new Node());
+                }
+                node.prefix = true;
+            } else {
+                names.add(p);
+            }
+        }
+    }
+
+    /**
+     * Check if the name matches any of the patterns
+     *
+     * @param name The name
+     * @return {@code true} if it matches
+     */
+    boolean matches(final String name) {
+        if (names.contains(name)) {
+            return true;
+        }
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.prefix) {
+                return true;
+            }
+            if (i == name.length()) {
+                return false;
+            }
+            node = node.children.get(name.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+}
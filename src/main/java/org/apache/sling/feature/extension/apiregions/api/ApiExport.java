@@ -19,6 +19,7 @@
 package org.apache.sling.feature.extension.apiregions.api;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -29,12 +30,16 @@ import jakarta.json.JsonObjectBuilder;
 import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
 import jakarta.json.JsonValue.ValueType;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
 import org.apache.sling.feature.ArtifactId;
 
 /**
  * Describes an exported package.
  *
- * This class is not thread safe.
+ * This class is not thread safe. Frozen exports, see {@link ApiRegions#freeze()},
+ * are immutable and can be shared between threads.
  */
 public class ApiExport implements Comparable<ApiExport> {
 
@@ -68,9 +73,15 @@ public class ApiExport implements Comparable<ApiExport> {
     /** If the package is behind a toggle, this is the previous artifact containing the package not behind a toggle */
     private ArtifactId previousArtifactId;
 
-    private final Map<String, String> properties = new HashMap<>();
+    private final Map<String, String> properties;
 
-    private final Deprecation deprecation = new Deprecation();
+    private final Deprecation deprecation;
+
+    /** Frozen exports can't be changed anymore */
+    private final boolean frozen;
+
+    /** Precalculated hash code of a frozen export */
+    private final int frozenHashCode;
 
     /**
      * Create a new export
@@ -82,6 +93,41 @@ public class ApiExport implements Comparable<ApiExport> {
             throw new IllegalArgumentException();
         }
         this.name = name;
+        this.properties = new HashMap<>();
+        this.deprecation = new Deprecation();
+        this.frozen = false;
+        this.frozenHashCode = 0;
+    }
+
+    /**
+     * Internal constructor to create a frozen copy
+     *
+     * @param source The export to copy
+     */
+    private ApiExport(final ApiExport source) {
+        this.name = source.name;
+        this.toggle = source.toggle;
+        this.library = source.library;
+        this.previousArtifactId = source.previousArtifactId;
+        this.properties = Collections.unmodifiableMap(new HashMap<>(source.properties));
+        this.deprecation = source.deprecation.freeze();
+        this.frozen = true;
+        this.frozenHashCode = this.calculateHashCode();
+    }
+
+    /**
+     * Internal method to get an immutable copy of this export
+     *
+     * @return The frozen export
+     */
+    ApiExport freeze() {
+        return this.frozen ? this : new ApiExport(this);
+    }
+
+    private void checkFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Export " + this.name + " is frozen");
+        }
     }
 
     /**
@@ -108,6 +154,7 @@ public class ApiExport implements Comparable<ApiExport> {
      * @param toggle The toggle info
      */
     public void setToggle(String toggle) {
+        this.checkFrozen();
         this.toggle = toggle;
     }
 
@@ -128,13 +175,14 @@ public class ApiExport implements Comparable<ApiExport> {
      * @since 1.2.0
      */
     public void setPreviousArtifactId(final ArtifactId previous) {
+        this.checkFrozen();
         this.previousArtifactId = previous;
     }
 
     /**
      * Get additional properties
      *
-     * @return Modifiable map of properties
+     * @return Map of properties, modifiable unless frozen
      */
     public Map<String, String> getProperties() {
         return this.properties;
@@ -164,6 +212,7 @@ public class ApiExport implements Comparable<ApiExport> {
      * @since 2.1.0
      */
     public void setLibrary(final String value) {
+        this.checkFrozen();
         this.library = value;
     }
 
@@ -397,6 +446,183 @@ public class ApiExport implements Comparable<ApiExport> {
         }
     }
 
+    /**
+     * Internal method to write the deprecation to a JSON generator if deprecation is set.
+     * The output is the same as the one from {@link #deprecationToJSON()}.
+     * @param generator The generator, positioned inside the export object
+     */
+    void writeDeprecation(final JsonGenerator generator) {
+        final Deprecation dep = this.getDeprecation();
+        if (dep.getPackageInfo() != null) {
+            if (dep.getPackageInfo().getSince() == null
+                    && dep.getPackageInfo().getForRemoval() == null
+                    && dep.getPackageInfo().getMode() == null) {
+                generator.write(DEPRECATED_KEY, dep.getPackageInfo().getMessage());
+            } else {
+                generator.writeStartObject(DEPRECATED_KEY);
+                writeDeprecationInfo(generator, dep.getPackageInfo());
+                generator.writeEnd();
+            }
+        } else if (!dep.getMemberInfos().isEmpty()) {
+            generator.writeStartObject(DEPRECATED_KEY);
+            generator.writeStartObject(MEMBERS_KEY);
+            for (final Map.Entry<String, DeprecationInfo> memberEntry :
+                    dep.getMemberInfos().entrySet()) {
+                if (memberEntry.getValue().getSince() == null
+                        && memberEntry.getValue().getForRemoval() == null
+                        && memberEntry.getValue().getMode() == null) {
+                    generator.write(memberEntry.getKey(), memberEntry.getValue().getMessage());
+                } else {
+                    generator.writeStartObject(memberEntry.getKey());
+                    writeDeprecationInfo(generator, memberEntry.getValue());
+                    generator.writeEnd();
+                }
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+    }
+
+    private static void writeDeprecationInfo(final JsonGenerator generator, final DeprecationInfo info) {
+        generator.write(MSG_KEY, info.getMessage());
+        if (info.getSince() != null) {
+            generator.write(SINCE_KEY, info.getSince());
+        }
+        if (info.getForRemoval() != null) {
+            generator.write(FOR_REMOVAL_KEY, info.getForRemoval());
+        }
+        if (info.getMode() != null) {
+            generator.write(MODE_KEY, info.getMode().name());
+        }
+    }
+
+    /**
+     * Internal method to write the export to a JSON generator. The output is the
+     * same as the one from {@link #toJSONValue()}.
+     * @param generator The generator, positioned inside an array
+     */
+    void writeJSON(final JsonGenerator generator) {
+        final Deprecation dep = this.getDeprecation();
+        // same output as toJSONValue(): the library alone does not turn the export into an object
+        if (this.getToggle() == null
+                && this.getPreviousArtifactId() == null
+                && this.getProperties().isEmpty()
+                && dep.getPackageInfo() == null
+                && dep.getMemberInfos().isEmpty()) {
+            generator.write(this.getName());
+            return;
+        }
+        generator.writeStartObject();
+        generator.write(NAME_KEY, this.getName());
+        if (this.getToggle() != null) {
+            generator.write(TOGGLE_KEY, this.getToggle());
+        }
+        if (this.getPreviousArtifactId() != null) {
+            generator.write(
+                    PREVIOUS_ARTIFACT_ID_KEY, this.getPreviousArtifactId().toMvnId());
+        }
+
+        this.writeDeprecation(generator);
+
+        if (this.getLibrary() != null) {
+            generator.write(LIBRARY_KEY, this.getLibrary());
+        }
+
+        for (final Map.Entry<String, String> entry : this.getProperties().entrySet()) {
+            generator.write(entry.getKey(), entry.getValue());
+        }
+        generator.writeEnd();
+    }
+
+    /**
+     * Internal method to read an export from a JSON parser
+     * @param region The region to add the export to
+     * @param parser The parser, positioned at the start of the export
+     * @param event The current event of the parser
+     * @return The export or {@code null} if the export is a comment
+     * @throws IOException If the format is not correct
+     */
+    static ApiExport fromJson(final ApiRegion region, final JsonParser parser, final Event event) throws IOException {
+        if (event == Event.VALUE_STRING) {
+            final String name = parser.getString();
+            if (!name.startsWith("#")) {
+                final ApiExport export = new ApiExport(name);
+                if (!region.add(export)) {
+                    throw new IOException(
+                            "Export " + export.getName() + " is defined twice in region " + region.getName());
+                }
+                return export;
+            }
+            return null;
+        } else if (event == Event.START_OBJECT) {
+            String name = null;
+            String toggle = null;
+            String previousArtifactId = null;
+            boolean previousArtifactIdTwice = false;
+            JsonValue dValue = null;
+            String library = null;
+            final Map<String, String> props = new HashMap<>();
+
+            while (parser.next() != Event.END_OBJECT) {
+                final String key = parser.getString();
+                if (NAME_KEY.equals(key)) {
+                    name = readString(region, parser, key);
+
+                } else if (TOGGLE_KEY.equals(key)) {
+                    toggle = readString(region, parser, key);
+
+                } else if (PREVIOUS_ARTIFACT_ID_KEY.equals(key)) {
+                    previousArtifactIdTwice = previousArtifactId != null;
+                    previousArtifactId = readString(region, parser, key);
+
+                } else if (DEPRECATED_KEY.equals(key)) {
+                    parser.next();
+                    dValue = parser.getValue();
+
+                } else if (LIBRARY_KEY.equals(key)) {
+                    library = readString(region, parser, key);
+
+                    // everything else is stored as a string property
+                } else {
+                    props.put(key, readString(region, parser, key));
+                }
+            }
+            if (name == null) {
+                throw new IOException("Region " + region.getName() + " has package export without " + NAME_KEY);
+            }
+            final ApiExport export = new ApiExport(name);
+            if (!region.add(export)) {
+                throw new IOException("Export " + export.getName() + " is defined twice in region " + region.getName());
+            }
+            if (previousArtifactIdTwice) {
+                throw new IOException("Export " + export.getName()
+                        + " is defining previous artifact id twice in region " + region.getName());
+            }
+            export.setToggle(toggle);
+            if (previousArtifactId != null) {
+                export.setPreviousArtifactId(ArtifactId.parse(previousArtifactId));
+            }
+            if (dValue != null) {
+                export.parseDeprecation(dValue);
+            }
+            export.setLibrary(library);
+            export.getProperties().putAll(props);
+            return export;
+        } else {
+            throw new IOException("Region " + region.getName() + " has wrong type for package export : "
+                    + parser.getValue().getValueType().name());
+        }
+    }
+
+    private static String readString(final ApiRegion region, final JsonParser parser, final String key)
+            throws IOException {
+        if (parser.next() != Event.VALUE_STRING) {
+            throw new IOException("Region " + region.getName() + " has wrong type for " + key + " : "
+                    + parser.getValue().getValueType().name());
+        }
+        return parser.getString();
+    }
+
     @Override
     public int compareTo(final ApiExport o) {
         return this.name.compareTo(o.name);
@@ -410,6 +636,10 @@ public class ApiExport implements Comparable<ApiExport> {
 
     @Override
     public int hashCode() {
+        return this.frozen ? this.frozenHashCode : this.calculateHashCode();
+    }
+
+    private int calculateHashCode() {
         return Objects.hash(deprecation, name, previousArtifactId, properties, toggle, library);
     }
 
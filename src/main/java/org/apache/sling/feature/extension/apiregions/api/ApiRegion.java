@@ -19,12 +19,14 @@
 package org.apache.sling.feature.extension.apiregions.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -33,23 +35,66 @@ import org.apache.sling.feature.ArtifactId;
 /**
  * Describes an api region for Java API
  *
- * This class is not thread safe.
+ * This class is not thread safe. Frozen regions, see {@link ApiRegions#freeze()},
+ * are immutable and can be shared between threads.
  */
 public class ApiRegion {
 
     /** Name of the global region. */
     public static final String GLOBAL = "global";
 
-    private final List<ApiExport> exports = new ArrayList<>();
+    /** Source for revision numbers, increasing across all regions */
+    private static final AtomicLong REVISIONS = new AtomicLong();
 
-    private final List<ArtifactId> origins = new ArrayList<>();
+    private final List<ApiExport> exports;
 
-    private final Map<String, String> properties = new HashMap<>();
+    /** Index of the exports by package name, kept in sync with {@link #exports} */
+    private final Map<String, ApiExport> exportsByName;
+
+    private final List<ArtifactId> origins;
+
+    private final Map<String, String> properties;
 
     private final String name;
 
     private ApiRegion parent;
 
+    /** Revision of this region, updated on every change to the exports or the parent */
+    private long revision = REVISIONS.incrementAndGet();
+
+    /** Revision of the feature origins, updated on every change to the origins */
+    private long originsRevision = REVISIONS.incrementAndGet();
+
+    /**
+     * Cached exports of this region and all parents. The holder is immutable and
+     * replaced as a whole, readers therefore always see a consistent state.
+     */
+    private volatile EffectiveExports effectiveExports;
+
+    /** Frozen regions can't be changed anymore */
+    private final boolean frozen;
+
+    /** Precalculated hash code of a frozen region */
+    private final int frozenHashCode;
+
+    /** The exports of a region and all its parents */
+    private static final class EffectiveExports {
+
+        /** Highest revision in the parent chain the exports have been calculated for */
+        final long revision;
+
+        final List<ApiExport> exports;
+
+        final Map<String, ApiExport> exportsByName;
+
+        EffectiveExports(
+                final long revision, final List<ApiExport> exports, final Map<String, ApiExport> exportsByName) {
+            this.revision = revision;
+            this.exports = exports;
+            this.exportsByName = exportsByName;
+        }
+    }
+
     /**
      * Create a new named region
      *
@@ -57,6 +102,62 @@ public class ApiRegion {
      */
     public ApiRegion(final String name) {
         this.name = name;
+        this.exports = new ArrayList<>();
+        this.exportsByName = new HashMap<>();
+        this.origins = new ArrayList<>();
+        this.properties = new HashMap<>();
+        this.frozen = false;
+        this.frozenHashCode = 0;
+    }
+
+    /**
+     * Internal constructor to create a frozen copy
+     *
+     * @param source The region to copy
+     * @param parent The frozen copy of the parent or {@code null}
+     */
+    private ApiRegion(final ApiRegion source, final ApiRegion parent) {
+        this.name = source.name;
+        final ApiExport[] exportArray = new ApiExport[source.exports.size()];
+        final Map<String, ApiExport> index = new HashMap<>();
+        for (int i = 0; i < exportArray.length; i++) {
+            exportArray[i] = source.exports.get(i).freeze();
+            index.put(exportArray[i].getName(), exportArray[i]);
+        }
+        this.exports = Collections.unmodifiableList(Arrays.asList(exportArray));
+        this.exportsByName = index;
+        this.origins = Collections.unmodifiableList(Arrays.asList(source.origins.toArray(new ArtifactId[0])));
+        this.properties = Collections.unmodifiableMap(new HashMap<>(source.properties));
+        this.parent = parent;
+        this.frozen = true;
+        this.effectiveExports = this.calculateEffectiveExports(0);
+        this.frozenHashCode = this.calculateHashCode();
+    }
+
+    /**
+     * Internal method to get an immutable copy of this region
+     *
+     * @param parent The frozen copy of the parent or {@code null}
+     * @return The frozen region
+     */
+    ApiRegion freeze(final ApiRegion parent) {
+        return this.frozen ? this : new ApiRegion(this, parent);
+    }
+
+    /**
+     * Check whether this region is frozen and therefore immutable.
+     *
+     * @return {@code true} if the region can't be changed
+     * @since 2.2.0
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    private void checkFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Region " + this.name + " is frozen");
+        }
     }
 
     /**
@@ -73,6 +174,7 @@ public class ApiRegion {
     }
 
     public void setFeatureOrigins(ArtifactId... featureOrigins) {
+        this.checkFrozen();
         origins.clear();
         if (featureOrigins != null) {
             origins.addAll(Stream.of(featureOrigins)
@@ -80,6 +182,16 @@ public class ApiRegion {
                     .distinct()
                     .collect(Collectors.toList()));
         }
+        this.originsRevision = REVISIONS.incrementAndGet();
+    }
+
+    /**
+     * Internal method to detect changes of the feature origins. Revisions are
+     * increasing, a change always results in a higher revision than before.
+     * @return The revision of the feature origins
+     */
+    long getOriginsRevision() {
+        return this.originsRevision;
     }
 
     /**
@@ -90,17 +202,13 @@ public class ApiRegion {
      * @return {@code true} if the export could be added, {@code false} otherwise
      */
     public boolean add(final ApiExport export) {
-        boolean found = false;
-        for (final ApiExport c : this.exports) {
-            if (c.getName().equals(export.getName())) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            this.exports.add(export);
+        this.checkFrozen();
+        if (this.exportsByName.putIfAbsent(export.getName(), export) != null) {
+            return false;
         }
-        return !found;
+        this.exports.add(export);
+        this.modified();
+        return true;
     }
 
     /**
@@ -110,7 +218,13 @@ public class ApiRegion {
      * @return {@code true} if the export got removed.
      */
     public boolean remove(final ApiExport export) {
-        return this.exports.remove(export);
+        this.checkFrozen();
+        if (this.exports.remove(export)) {
+            this.exportsByName.remove(export.getName());
+            this.modified();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -137,12 +251,7 @@ public class ApiRegion {
      * @return The collection of exports
      */
     public Collection<ApiExport> listAllExports() {
-        final List<ApiExport> list = new ArrayList<>();
-        if (parent != null) {
-            list.addAll(parent.listAllExports());
-        }
-        list.addAll(this.exports);
-        return Collections.unmodifiableCollection(list);
+        return this.getEffectiveExports().exports;
     }
 
     /**
@@ -152,12 +261,7 @@ public class ApiRegion {
      * @return The export or {@code null}
      */
     public ApiExport getExportByName(final String name) {
-        for (final ApiExport e : this.exports) {
-            if (e.getName().equals(name)) {
-                return e;
-            }
-        }
-        return null;
+        return this.exportsByName.get(name);
     }
 
     /**
@@ -167,18 +271,54 @@ public class ApiRegion {
      * @return The export or {@code null}
      */
     public ApiExport getAllExportByName(final String name) {
-        for (final ApiExport e : listAllExports()) {
-            if (e.getName().equals(name)) {
-                return e;
-            }
+        return this.getEffectiveExports().exportsByName.get(name);
+    }
+
+    private void modified() {
+        this.revision = REVISIONS.incrementAndGet();
+    }
+
+    /**
+     * Get the exports of this region and all parents, recalculating them if this
+     * region or any of its parents changed since the last calculation.
+     *
+     * @return The exports
+     */
+    private EffectiveExports getEffectiveExports() {
+        EffectiveExports current = this.effectiveExports;
+        if (this.frozen) {
+            return current;
+        }
+        long chainRevision = 0;
+        for (ApiRegion r = this; r != null; r = r.parent) {
+            chainRevision = Math.max(chainRevision, r.revision);
+        }
+        if (current == null || current.revision != chainRevision) {
+            current = this.calculateEffectiveExports(chainRevision);
+            this.effectiveExports = current;
+        }
+        return current;
+    }
+
+    private EffectiveExports calculateEffectiveExports(final long chainRevision) {
+        final List<ApiExport> list = new ArrayList<>();
+        final Map<String, ApiExport> index = new HashMap<>();
+        if (parent != null) {
+            final EffectiveExports parentExports = parent.getEffectiveExports();
+            list.addAll(parentExports.exports);
+            index.putAll(parentExports.exportsByName);
         }
-        return null;
+        for (final ApiExport e : this.exports) {
+            list.add(e);
+            index.putIfAbsent(e.getName(), e);
+        }
+        return new EffectiveExports(chainRevision, Collections.unmodifiableList(list), index);
     }
 
     /**
      * Get additional properties
      *
-     * @return Modifiable map of properties
+     * @return Map of properties, modifiable unless frozen
      */
     public Map<String, String> getProperties() {
         return this.properties;
@@ -194,7 +334,9 @@ public class ApiRegion {
     }
 
     void setParent(final ApiRegion region) {
+        this.checkFrozen();
         this.parent = region;
+        this.modified();
     }
 
     @Override
@@ -205,6 +347,10 @@ public class ApiRegion {
 
     @Override
     public int hashCode() {
+        return this.frozen ? this.frozenHashCode : this.calculateHashCode();
+    }
+
+    private int calculateHashCode() {
         return Objects.hash(exports, name, origins, parent, properties);
     }
 
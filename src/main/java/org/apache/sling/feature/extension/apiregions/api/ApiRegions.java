@@ -18,15 +18,28 @@
  */
 package org.apache.sling.feature.extension.apiregions.api;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -41,7 +54,9 @@ import jakarta.json.JsonReader;
 import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
 import jakarta.json.JsonValue.ValueType;
-import jakarta.json.JsonWriter;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
 import org.apache.sling.feature.Artifact;
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.Extension;
@@ -51,7 +66,8 @@ import org.apache.sling.feature.Feature;
 /**
  * Configuration of API regions for Java API.
  *
- * This class is not thread safe.
+ * This class is not thread safe. A frozen copy, see {@link #freeze()},
+ * is immutable and can be shared between threads.
  */
 public class ApiRegions {
 
@@ -62,7 +78,99 @@ public class ApiRegions {
 
     private static final String EXPORTS_KEY = "exports";
 
-    private final List<ApiRegion> regions = new ArrayList<>();
+    private static final ApiRegion[] NO_REGIONS = new ApiRegion[0];
+
+    private final List<ApiRegion> regions;
+
+    /** Index of the regions by name, kept in sync with {@link #regions} */
+    private final Map<String, ApiRegion> regionsByName;
+
+    /** Index of the regions by feature origin, {@code null} if it needs to be recalculated */
+    private Map<ArtifactId, List<ApiRegion>> regionsByFeature;
+
+    /** Index of the region ordinals by feature origin, calculated together with {@link #regionsByFeature} */
+    private Map<ArtifactId, BitSet> regionMasksByFeature;
+
+    /** Highest origins revision of all regions at the time the index was calculated */
+    private long regionsByFeatureRevision;
+
+    /** Ordinals of the regions by name, {@code null} if they need to be recalculated */
+    private Map<String, Integer> ordinals;
+
+    /** Ordinals of each region and its parents, calculated together with {@link #ordinals} */
+    private BitSet[] inheritedMasks;
+
+    /** Frozen api regions can't be changed anymore */
+    private final boolean frozen;
+
+    /** Precalculated hash code of frozen api regions */
+    private final int frozenHashCode;
+
+    /**
+     * Create a new, empty api regions object
+     */
+    public ApiRegions() {
+        this.regions = new ArrayList<>();
+        this.regionsByName = new HashMap<>();
+        this.frozen = false;
+        this.frozenHashCode = 0;
+    }
+
+    /**
+     * Internal constructor to create a frozen copy
+     *
+     * @param source The api regions to copy
+     */
+    private ApiRegions(final ApiRegions source) {
+        final Map<ApiRegion, ApiRegion> frozenRegions = new IdentityHashMap<>();
+        final ApiRegion[] regionArray = new ApiRegion[source.regions.size()];
+        this.regionsByName = new HashMap<>();
+        for (int i = 0; i < regionArray.length; i++) {
+            regionArray[i] = freeze(source.regions.get(i), frozenRegions);
+            this.regionsByName.put(regionArray[i].getName(), regionArray[i]);
+        }
+        this.regions = Collections.unmodifiableList(Arrays.asList(regionArray));
+        this.frozen = true;
+        this.calculateRegionsByFeature();
+        this.calculateOrdinals();
+        this.frozenHashCode = Objects.hash(regions);
+    }
+
+    private static ApiRegion freeze(final ApiRegion region, final Map<ApiRegion, ApiRegion> frozenRegions) {
+        ApiRegion result = frozenRegions.get(region);
+        if (result == null) {
+            final ApiRegion parent = region.getParent() == null ? null : freeze(region.getParent(), frozenRegions);
+            result = region.freeze(parent);
+            frozenRegions.put(region, result);
+        }
+        return result;
+    }
+
+    /**
+     * Create an immutable copy of the api regions. The copy includes all regions
+     * and exports and can't be changed anymore: all methods which would change
+     * the copy throw an {@link UnsupportedOperationException}. As the copy is
+     * immutable, it can be shared between threads and all indexes used for
+     * looking up exports and regions are calculated upfront.
+     * If this object is already frozen, it is returned as is.
+     *
+     * @return The frozen api regions
+     * @since 2.2.0
+     */
+    public ApiRegions freeze() {
+        return this.frozen ? this : new ApiRegions(this);
+    }
+
+    /**
+     * Check whether the api regions are frozen and therefore immutable.
+     *
+     * @return {@code true} if the api regions can't be changed
+     * @see #freeze()
+     * @since 2.2.0
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
 
     /**
      * Return the list of regions
@@ -114,10 +222,11 @@ public class ApiRegions {
      * @return {@code true} if the region could be added, {@code false} otherwise
      */
     public boolean add(final int idx, final ApiRegion region) {
-        for (final ApiRegion c : this.regions) {
-            if (c.getName().equals(region.getName())) {
-                return false;
-            }
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Api regions are frozen");
+        }
+        if (this.regionsByName.containsKey(region.getName())) {
+            return false;
         }
         Set<ArtifactId> origins = new LinkedHashSet<>(Arrays.asList(region.getFeatureOrigins()));
 
@@ -131,6 +240,9 @@ public class ApiRegions {
                 .ifPresent(region::setParent);
 
         this.regions.add(idx, region);
+        this.regionsByName.put(region.getName(), region);
+        this.regionsByFeature = null;
+        this.ordinals = null;
         return true;
     }
 
@@ -141,22 +253,142 @@ public class ApiRegions {
      * @return The region or {@code null}
      */
     public ApiRegion getRegionByName(final String name) {
-        ApiRegion found = null;
+        return this.regionsByName.get(name);
+    }
 
-        for (final ApiRegion c : this.regions) {
-            if (c.getName().equals(name)) {
-                found = c;
-                break;
+    /**
+     * Get all regions which have the feature as an origin
+     *
+     * @param featureId The feature id
+     * @return The regions in the order of the api regions, might be empty
+     */
+    public ApiRegion[] getRegionsByFeature(final ArtifactId featureId) {
+        return this.listRegionsByFeature(featureId).toArray(NO_REGIONS);
+    }
+
+    /**
+     * Get all regions which have the feature as an origin. Unlike
+     * {@link #getRegionsByFeature(ArtifactId)} this does not copy the regions.
+     *
+     * @param featureId The feature id
+     * @return Unmodifiable list of regions in the order of the api regions, might be empty
+     * @since 2.2.0
+     */
+    public List<ApiRegion> listRegionsByFeature(final ArtifactId featureId) {
+        this.updateRegionsByFeature();
+        final List<ApiRegion> result = this.regionsByFeature.get(featureId);
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * Get the ordinal of a region. The ordinal is the position of the region in
+     * {@link #listRegions()} and is used for the bits of the region masks.
+     *
+     * @param region The region
+     * @return The ordinal or {@code -1} if the region is not part of the api regions
+     * @since 2.2.0
+     */
+    public int getRegionOrdinal(final ApiRegion region) {
+        this.updateOrdinals();
+        final Integer ordinal = this.ordinals.get(region.getName());
+        if (ordinal == null || this.regions.get(ordinal) != region) {
+            return -1;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Get all regions which have the feature as an origin as a region mask. Each
+     * set bit is the ordinal of a region, see {@link #getRegionOrdinal(ApiRegion)}.
+     * For frozen api regions the returned bit set is shared and must not be
+     * modified, otherwise a new bit set is returned.
+     *
+     * @param featureId The feature id
+     * @return A bit set with the region ordinals, might be empty
+     * @since 2.2.0
+     */
+    public BitSet getRegionMaskByFeature(final ArtifactId featureId) {
+        this.updateRegionsByFeature();
+        final BitSet result = this.regionMasksByFeature.get(featureId);
+        if (result == null) {
+            return new BitSet();
+        }
+        return this.frozen ? result : (BitSet) result.clone();
+    }
+
+    /**
+     * Get a region and all its parents as a region mask. Each set bit is the
+     * ordinal of a region, see {@link #getRegionOrdinal(ApiRegion)}.
+     * For frozen api regions the returned bit set is shared and must not be
+     * modified, otherwise a new bit set is returned.
+     *
+     * @param region The region
+     * @return A bit set with the region ordinals, empty if the region is not
+     *         part of the api regions
+     * @since 2.2.0
+     */
+    public BitSet getInheritedRegionMask(final ApiRegion region) {
+        final int ordinal = this.getRegionOrdinal(region);
+        if (ordinal == -1) {
+            return new BitSet();
+        }
+        return this.frozen ? this.inheritedMasks[ordinal] : (BitSet) this.inheritedMasks[ordinal].clone();
+    }
+
+    private void updateRegionsByFeature() {
+        if (!this.frozen) {
+            // regions might be shared with other api regions, each region tracks its own changes
+            long revision = 0;
+            for (final ApiRegion region : this.regions) {
+                revision = Math.max(revision, region.getOriginsRevision());
+            }
+            if (this.regionsByFeature == null || revision != this.regionsByFeatureRevision) {
+                this.calculateRegionsByFeature();
+                this.regionsByFeatureRevision = revision;
+            }
+        }
+    }
+
+    private void calculateRegionsByFeature() {
+        final Map<ArtifactId, List<ApiRegion>> index = new HashMap<>();
+        final Map<ArtifactId, BitSet> masks = new HashMap<>();
+        for (int i = 0; i < this.regions.size(); i++) {
+            final ApiRegion region = this.regions.get(i);
+            for (final ArtifactId origin : region.getFeatureOrigins()) {
+                index.computeIfAbsent(origin, key -> new ArrayList<>()).add(region);
+                masks.computeIfAbsent(origin, key -> new BitSet()).set(i);
             }
         }
+        for (final Map.Entry<ArtifactId, List<ApiRegion>> entry : index.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        this.regionsByFeature = index;
+        this.regionMasksByFeature = masks;
+    }
 
-        return found;
+    private void updateOrdinals() {
+        if (this.ordinals == null) {
+            this.calculateOrdinals();
+        }
     }
 
-    public ApiRegion[] getRegionsByFeature(final ArtifactId featureId) {
-        return this.regions.stream()
-                .filter(region -> Stream.of(region.getFeatureOrigins()).anyMatch(featureId::equals))
-                .toArray(ApiRegion[]::new);
+    private void calculateOrdinals() {
+        final Map<String, Integer> result = new HashMap<>();
+        for (int i = 0; i < this.regions.size(); i++) {
+            result.put(this.regions.get(i).getName(), i);
+        }
+        final BitSet[] masks = new BitSet[this.regions.size()];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = new BitSet();
+            for (ApiRegion r = this.regions.get(i); r != null; r = r.getParent()) {
+                final Integer ordinal = result.get(r.getName());
+                if (ordinal != null && this.regions.get(ordinal) == r) {
+                    masks[i].set(ordinal);
+                }
+            }
+        }
+        this.inheritedMasks = masks;
+        this.ordinals = result;
     }
 
     /**
@@ -218,14 +450,108 @@ public class ApiRegions {
      * @throws IOException If generating the JSON fails
      */
     public String toJSON() throws IOException {
-        final JsonArray array = this.toJSONArray();
-        try (final StringWriter stringWriter = new StringWriter();
-                final JsonWriter writer = Json.createWriter(stringWriter)) {
-            writer.writeArray(array);
+        try (final StringWriter stringWriter = new StringWriter()) {
+            this.writeTo(stringWriter);
             return stringWriter.toString();
         }
     }
 
+    /**
+     * Write the regions as json. The json is generated in a streaming way without
+     * creating an intermediate JSON structure. The output is the same as the one
+     * from {@link #toJSON()}. The writer is flushed but not closed.
+     *
+     * @param writer The writer to write to
+     * @throws IOException If generating the JSON fails
+     * @since 2.2.0
+     */
+    public void writeTo(final Writer writer) throws IOException {
+        try (final JsonGenerator generator = Json.createGenerator(new NonClosingWriter(writer))) {
+            this.writeTo(generator);
+        } catch (final JsonException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write the regions as json using UTF-8 encoding. The json is generated in a
+     * streaming way without creating an intermediate JSON structure. The output is
+     * the same as the one from {@link #toJSON()}. The stream is flushed but not closed.
+     *
+     * @param stream The stream to write to
+     * @throws IOException If generating the JSON fails
+     * @since 2.2.0
+     */
+    public void writeTo(final OutputStream stream) throws IOException {
+        try (final JsonGenerator generator = Json.createGenerator(new NonClosingOutputStream(stream))) {
+            this.writeTo(generator);
+        } catch (final JsonException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Writer leaving the writer of the caller open when the generator is closed */
+    private static final class NonClosingWriter extends FilterWriter {
+
+        NonClosingWriter(final Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the caller closes the writer
+            this.flush();
+        }
+    }
+
+    /** Stream leaving the stream of the caller open when the generator is closed */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(final OutputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the caller closes the stream
+            this.flush();
+        }
+    }
+
+    private void writeTo(final JsonGenerator generator) {
+        generator.writeStartArray();
+        for (final ApiRegion region : this.regions) {
+            generator.writeStartObject();
+            generator.write(NAME_KEY, region.getName());
+
+            if (!region.listExports().isEmpty()) {
+                generator.writeStartArray(EXPORTS_KEY);
+                for (final ApiExport exp : region.listExports()) {
+                    exp.writeJSON(generator);
+                }
+                generator.writeEnd();
+            }
+            final ArtifactId[] origins = region.getFeatureOrigins();
+            if (origins.length > 0) {
+                generator.writeStartArray(Artifact.KEY_FEATURE_ORIGINS);
+                for (final ArtifactId origin : origins) {
+                    generator.write(origin.toMvnId());
+                }
+                generator.writeEnd();
+            }
+            for (final Map.Entry<String, String> entry : region.getProperties().entrySet()) {
+                generator.write(entry.getKey(), entry.getValue());
+            }
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+    }
+
     /**
      * Parse a JSON array into an api regions object
      *
@@ -234,9 +560,170 @@ public class ApiRegions {
      * @throws IOException If the json could not be parsed
      */
     public static ApiRegions parse(final String json) throws IOException {
-        try (final JsonReader reader = Json.createReader(new StringReader(json))) {
-            return parse(reader.readArray());
+        try (final JsonParser parser = Json.createParser(new StringReader(json))) {
+            return parse(parser);
+        } catch (final IOException e) {
+            // report invalid json in the same way as the parser based on the JSON structure
+            try (final JsonReader reader = Json.createReader(new StringReader(json))) {
+                return parse(reader.readArray());
+            }
+        }
+    }
+
+    /**
+     * Parse a JSON array into an api regions object. The JSON is read in a
+     * streaming way, the api regions are created while reading without creating
+     * an intermediate JSON structure first. The reader is not closed.
+     *
+     * @param reader The reader to read the json from
+     * @return The api regions
+     * @throws IOException If the json could not be parsed
+     * @since 2.2.0
+     */
+    public static ApiRegions parse(final Reader reader) throws IOException {
+        try (final JsonParser parser = Json.createParser(new NonClosingReader(reader))) {
+            return parse(parser);
+        }
+    }
+
+    /**
+     * Parse a JSON array into an api regions object. The JSON is read in a
+     * streaming way, the api regions are created while reading without creating
+     * an intermediate JSON structure first. The encoding of the stream is detected
+     * as defined in RFC 7159. The stream is not closed.
+     *
+     * @param stream The stream to read the json from
+     * @return The api regions
+     * @throws IOException If the json could not be parsed
+     * @since 2.2.0
+     */
+    public static ApiRegions parse(final InputStream stream) throws IOException {
+        try (final JsonParser parser = Json.createParser(new NonClosingInputStream(stream))) {
+            return parse(parser);
+        }
+    }
+
+    /** Reader leaving the reader of the caller open when the parser is closed */
+    private static final class NonClosingReader extends FilterReader {
+
+        NonClosingReader(final Reader reader) {
+            super(reader);
+        }
+
+        @Override
+        public void close() {
+            // the caller closes the reader
+        }
+    }
+
+    /** Stream leaving the stream of the caller open when the parser is closed */
+    private static final class NonClosingInputStream extends FilterInputStream {
+
+        NonClosingInputStream(final InputStream stream) {
+            super(stream);
+        }
+
+        @Override
+        public void close() {
+            // the caller closes the stream
+        }
+    }
+
+    private static ApiRegions parse(final JsonParser parser) throws IOException {
+        try {
+            if (parser.next() != Event.START_ARRAY) {
+                throw new IOException("Illegal api regions json, expected an array");
+            }
+            final ApiRegions regions = new ApiRegions();
+
+            Event event;
+            while ((event = parser.next()) != Event.END_ARRAY) {
+                if (event != Event.START_OBJECT) {
+                    throw new IOException("Illegal api regions json " + parser.getValue());
+                }
+                final ApiRegion region = parseRegion(parser);
+                if (!regions.add(region)) {
+                    throw new IOException("Region " + region.getName() + " is defined twice");
+                }
+            }
+            if (parser.hasNext()) {
+                throw new IOException("Illegal api regions json, unexpected content after the regions");
+            }
+            return regions;
+        } catch (final JsonException
+                | IllegalArgumentException
+                | IllegalStateException
+                | ClassCastException
+                | NoSuchElementException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static ApiRegion parseRegion(final JsonParser parser) throws IOException {
+        ApiRegion region = null;
+        // exports found before the name of the region
+        JsonArray pendingExports = null;
+        ArtifactId[] origins = null;
+        final Map<String, String> properties = new LinkedHashMap<>();
+
+        while (parser.next() != Event.END_OBJECT) {
+            final String key = parser.getString();
+            final Event event = parser.next();
+            if (NAME_KEY.equals(key)) {
+                if (event != Event.VALUE_STRING) {
+                    throw new IOException("Illegal api regions json, region name must be a string");
+                }
+                region = new ApiRegion(parser.getString());
+                if (pendingExports != null) {
+                    for (final JsonValue e : pendingExports) {
+                        ApiExport.fromJson(region, e);
+                    }
+                }
+            } else if (EXPORTS_KEY.equals(key)) {
+                if (event != Event.START_ARRAY) {
+                    if (region == null) {
+                        throw new IOException("Illegal api regions json, " + key + " must be an array");
+                    }
+                    throw new IOException("Region " + region.getName() + " has wrong type for " + EXPORTS_KEY);
+                }
+                if (region == null) {
+                    pendingExports = parser.getArray();
+                } else {
+                    Event e;
+                    while ((e = parser.next()) != Event.END_ARRAY) {
+                        ApiExport.fromJson(region, parser, e);
+                    }
+                }
+            } else if (Artifact.KEY_FEATURE_ORIGINS.equals(key)) {
+                if (event != Event.START_ARRAY) {
+                    throw new IOException("Illegal api regions json, " + key + " must be an array");
+                }
+                final Set<ArtifactId> ids = new LinkedHashSet<>();
+                Event e;
+                while ((e = parser.next()) != Event.END_ARRAY) {
+                    if (e != Event.VALUE_STRING) {
+                        throw new IOException("Illegal api regions json, " + key + " must be an array of strings");
+                    }
+                    ids.add(ArtifactId.fromMvnId(parser.getString()));
+                }
+                origins = ids.toArray(new ArtifactId[0]);
+
+                // everything else is stored as a string property
+            } else {
+                if (event != Event.VALUE_STRING) {
+                    throw new IOException("Illegal api regions json, " + key + " must be a string");
+                }
+                properties.put(key, parser.getString());
+            }
+        }
+        if (region == null) {
+            throw new IOException("Illegal api regions json, region without " + NAME_KEY);
+        }
+        if (origins != null) {
+            region.setFeatureOrigins(origins);
         }
+        region.getProperties().putAll(properties);
+        return region;
     }
 
     /**
@@ -330,7 +817,7 @@ public class ApiRegions {
 
     @Override
     public int hashCode() {
-        return Objects.hash(regions);
+        return this.frozen ? this.frozenHashCode : Objects.hash(regions);
     }
 
     @Override
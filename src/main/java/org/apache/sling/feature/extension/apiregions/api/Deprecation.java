@@ -18,6 +18,7 @@
  */
 package org.apache.sling.feature.extension.apiregions.api;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -33,7 +34,46 @@ public class Deprecation {
 
     private DeprecationInfo packageInfo;
 
-    private final Map<String, DeprecationInfo> memberInfos = new LinkedHashMap<>();
+    private final Map<String, DeprecationInfo> memberInfos;
+
+    /** Frozen deprecations can't be changed anymore */
+    private final boolean frozen;
+
+    /**
+     * Create a new deprecation
+     */
+    public Deprecation() {
+        this.memberInfos = new LinkedHashMap<>();
+        this.frozen = false;
+    }
+
+    /**
+     * Internal constructor to create a frozen copy
+     * @param source The deprecation to copy
+     */
+    private Deprecation(final Deprecation source) {
+        this.packageInfo = source.packageInfo == null ? null : source.packageInfo.freeze();
+        final Map<String, DeprecationInfo> infos = new LinkedHashMap<>();
+        for (final Map.Entry<String, DeprecationInfo> entry : source.memberInfos.entrySet()) {
+            infos.put(entry.getKey(), entry.getValue().freeze());
+        }
+        this.memberInfos = Collections.unmodifiableMap(infos);
+        this.frozen = true;
+    }
+
+    /**
+     * Internal method to get an immutable copy of this deprecation
+     * @return The frozen deprecation
+     */
+    Deprecation freeze() {
+        return this.frozen ? this : new Deprecation(this);
+    }
+
+    private void checkFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Deprecation is frozen");
+        }
+    }
 
     /**
      * Get the optional package info if the package is deprecated
@@ -49,6 +89,7 @@ public class Deprecation {
      * @throws IllegalStateException If a member is already deprecated
      */
     public void setPackageInfo(final DeprecationInfo i) {
+        this.checkFrozen();
         if (!this.memberInfos.isEmpty()) {
             throw new IllegalStateException("Member is already deprecated");
         }
@@ -62,6 +103,7 @@ public class Deprecation {
      * @throws IllegalStateException if the package is already deprecated
      */
     public void addMemberInfo(final String member, final DeprecationInfo i) {
+        this.checkFrozen();
         if (this.packageInfo != null) {
             throw new IllegalStateException("Package is already deprecated");
         }
@@ -73,6 +115,7 @@ public class Deprecation {
      * @param member The member
      */
     public void removeMemberInfo(final String member) {
+        this.checkFrozen();
         this.memberInfos.remove(member);
     }
 
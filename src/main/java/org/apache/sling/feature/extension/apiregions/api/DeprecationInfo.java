@@ -44,6 +44,9 @@ public class DeprecationInfo {
      */
     private DeprecationValidationMode mode;
 
+    /** Frozen infos can't be changed anymore */
+    private final boolean frozen;
+
     /**
      * Create a new info
      * @param msg The msg
@@ -54,6 +57,33 @@ public class DeprecationInfo {
             throw new IllegalArgumentException();
         }
         this.message = msg;
+        this.frozen = false;
+    }
+
+    /**
+     * Internal constructor to create a frozen copy
+     * @param source The info to copy
+     */
+    private DeprecationInfo(final DeprecationInfo source) {
+        this.message = source.message;
+        this.since = source.since;
+        this.forRemoval = source.forRemoval;
+        this.mode = source.mode;
+        this.frozen = true;
+    }
+
+    /**
+     * Internal method to get an immutable copy of this info
+     * @return The frozen info
+     */
+    DeprecationInfo freeze() {
+        return this.frozen ? this : new DeprecationInfo(this);
+    }
+
+    private void checkFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Deprecation info is frozen");
+        }
     }
 
     /**
@@ -77,6 +107,7 @@ public class DeprecationInfo {
      * @param since The new info
      */
     public void setSince(final String since) {
+        this.checkFrozen();
         this.since = since;
     }
 
@@ -97,6 +128,7 @@ public class DeprecationInfo {
      * @since 1.3.0
      */
     public void setForRemoval(final String value) {
+        this.checkFrozen();
         this.forRemoval = value;
     }
 
@@ -154,6 +186,7 @@ public class DeprecationInfo {
      * @since 1.4.0
      */
     public void setMode(final DeprecationValidationMode value) {
+        this.checkFrozen();
         this.mode = value;
     }
 
@@ -25,8 +25,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
@@ -47,6 +52,7 @@ import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class APIRegionMergeHandlerTest {
@@ -250,4 +256,151 @@ public class APIRegionMergeHandlerTest {
         }
         assertEquals(resultNames, actualNames);
     }
+
+    private static Extension createRegionsExtension(final String json) {
+        final Extension ext = new Extension(ExtensionType.JSON, ApiRegions.EXTENSION_NAME, ExtensionState.OPTIONAL);
+        ext.setJSON(json);
+        return ext;
+    }
+
+    @Test
+    public void testMergeSequenceKeepsTargetModel() throws Exception {
+        final String[] sources = {
+            "[{\"name\":\"global\",\"exports\":[\"a\"]},{\"name\":\"internal\",\"exports\":[\"x\"]}]",
+            "[{\"name\":\"top\",\"exports\":[\"t\"]},{\"name\":\"global\",\"exports\":[\"b\",\"a\"]}]",
+            "[{\"name\":\"global\",\"exports\":[\"c\"]},{\"name\":\"deprecated\",\"exports\":[\"d\"]},"
+                    + "{\"name\":\"internal\",\"exports\":[\"y\"]}]"
+        };
+        final HandlerContext hc = Mockito.mock(HandlerContext.class);
+
+        // the same handler for all sources
+        final APIRegionMergeHandler armh = new APIRegionMergeHandler();
+        final Feature tf = new Feature(ArtifactId.fromMvnId("x:t:1"));
+
+        // a new handler for every source, parsing the target every time
+        final Feature expectedFeature = new Feature(ArtifactId.fromMvnId("x:t:1"));
+
+        for (int i = 0; i < sources.length; i++) {
+            final Feature sf = new Feature(ArtifactId.fromMvnId("y:s" + i + ":1"));
+            armh.merge(
+                    hc,
+                    tf,
+                    sf,
+                    tf.getExtensions().getByName(ApiRegions.EXTENSION_NAME),
+                    createRegionsExtension(sources[i]));
+
+            new APIRegionMergeHandler()
+                    .merge(
+                            hc,
+                            expectedFeature,
+                            sf,
+                            expectedFeature.getExtensions().getByName(ApiRegions.EXTENSION_NAME),
+                            createRegionsExtension(sources[i]));
+
+            assertEquals(
+                    expectedFeature
+                            .getExtensions()
+                            .getByName(ApiRegions.EXTENSION_NAME)
+                            .getJSONStructure(),
+                    tf.getExtensions().getByName(ApiRegions.EXTENSION_NAME).getJSONStructure());
+        }
+        assertEquals(
+                Arrays.asList("top", "global", "deprecated", "internal"),
+                ApiRegions.getApiRegions(tf).getRegionNames());
+    }
+
+    @Test
+    public void testMergeAfterTargetChanged() throws Exception {
+        final HandlerContext hc = Mockito.mock(HandlerContext.class);
+        final APIRegionMergeHandler armh = new APIRegionMergeHandler();
+        final Feature tf = new Feature(ArtifactId.fromMvnId("x:t:1"));
+
+        armh.merge(
+                hc,
+                tf,
+                new Feature(ArtifactId.fromMvnId("y:s1:1")),
+                null,
+                createRegionsExtension("[{\"name\":\"global\",\"exports\":[\"a\"]}]"));
+
+        // change the target outside of the handler
+        final Extension targetEx = tf.getExtensions().getByName(ApiRegions.EXTENSION_NAME);
+        targetEx.setJSON("[{\"name\":\"global\",\"exports\":[\"z\"]}]");
+
+        armh.merge(
+                hc,
+                tf,
+                new Feature(ArtifactId.fromMvnId("y:s2:1")),
+                targetEx,
+                createRegionsExtension("[{\"name\":\"global\",\"exports\":[\"b\"]}]"));
+
+        final ApiRegion global = ApiRegions.getApiRegions(tf).getRegionByName("global");
+        assertEquals(2, global.listExports().size());
+        assertNotNull(global.getExportByName("z"));
+        assertNotNull(global.getExportByName("b"));
+    }
+
+    @Test
+    public void testBatchMergeMatchesSequentialMerge() throws Exception {
+        final String[] names = {"top", "global", "deprecated", "internal", "r1", "r2", "r3"};
+        final Random random = new Random(42);
+        final HandlerContext hc = Mockito.mock(HandlerContext.class);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (int run = 0; run < 50; run++) {
+                final List<String> sources = new ArrayList<>();
+                final int count = 1 + random.nextInt(6);
+                for (int i = 0; i < count; i++) {
+                    final List<String> regionNames = new ArrayList<>(Arrays.asList(names));
+                    Collections.shuffle(regionNames, random);
+                    final ApiRegions regions = new ApiRegions();
+                    for (final String name : regionNames.subList(0, 1 + random.nextInt(names.length))) {
+                        final ApiRegion region = new ApiRegion(name);
+                        for (int e = random.nextInt(4); e > 0; e--) {
+                            region.add(new ApiExport("p" + random.nextInt(8)));
+                        }
+                        if (random.nextInt(4) == 0) {
+                            region.setFeatureOrigins(ArtifactId.fromMvnId("o:o" + random.nextInt(3) + ":1"));
+                        }
+                        if (random.nextInt(4) == 0) {
+                            region.getProperties().put("key", "value" + i);
+                        }
+                        regions.add(region);
+                    }
+                    sources.add(regions.toJSON());
+                }
+
+                final Feature target = new Feature(ArtifactId.fromMvnId("x:t:1"));
+                final Map<ArtifactId, ApiRegions> batch = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    final Feature source = new Feature(ArtifactId.fromMvnId("y:s" + i + ":1"));
+                    new APIRegionMergeHandler()
+                            .merge(
+                                    hc,
+                                    target,
+                                    source,
+                                    target.getExtensions().getByName(ApiRegions.EXTENSION_NAME),
+                                    createRegionsExtension(sources.get(i)));
+                    batch.put(source.getId(), ApiRegions.parse(sources.get(i)));
+                }
+
+                final ApiRegions merged = APIRegionMergeHandler.merge(batch);
+                assertEquals(
+                        target.getExtensions()
+                                .getByName(ApiRegions.EXTENSION_NAME)
+                                .getJSONStructure(),
+                        merged.toJSONArray());
+                assertEquals(ApiRegions.getApiRegions(target), merged);
+
+                // merge as a tree
+                for (final Map.Entry<ArtifactId, ApiRegions> entry : batch.entrySet()) {
+                    entry.setValue(ApiRegions.parse(sources.get(
+                            Integer.parseInt(entry.getKey().getArtifactId().substring(1)))));
+                }
+                assertEquals(merged, APIRegionMergeHandler.merge(batch, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
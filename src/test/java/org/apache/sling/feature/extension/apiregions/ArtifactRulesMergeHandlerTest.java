@@ -18,6 +18,11 @@
  */
 package org.apache.sling.feature.extension.apiregions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.Feature;
 import org.apache.sling.feature.builder.BuilderContext;
@@ -73,4 +78,41 @@ public class ArtifactRulesMergeHandlerTest {
         assertNotNull(rules);
         assertEquals(2, rules.getBundleVersionRules().size());
     }
+
+    @Test
+    public void testTreeMergeMatchesSequentialMerge() throws Exception {
+        final List<Feature> features = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            final Feature feature = new Feature(ArtifactId.parse("g:f" + i + ":1"));
+            final ArtifactRules rules = new ArtifactRules();
+            rules.setMode(i == 3 ? Mode.STRICT : Mode.LENIENT);
+            final VersionRule rule = new VersionRule();
+            rule.setMessage("rule " + i);
+            rules.getBundleVersionRules().add(rule);
+            ArtifactRules.setArtifactRules(feature, rules);
+            features.add(feature);
+        }
+
+        final BuilderContext context = new BuilderContext(id -> null);
+        context.addMergeExtensions(new ArtifactRulesMergeHandler());
+        final Feature result =
+                FeatureBuilder.assemble(ArtifactId.parse("g:r:1"), context, features.toArray(new Feature[0]));
+        final ArtifactRules expected = ArtifactRules.getArtifactRules(result);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final ForkJoinPool p : Arrays.asList(null, pool)) {
+                final List<ArtifactRules> sources = new ArrayList<>();
+                for (final Feature feature : features) {
+                    sources.add(ArtifactRules.getArtifactRules(feature));
+                }
+                final ArtifactRules merged = ArtifactRulesMergeHandler.merge(sources, p);
+                assertEquals(Mode.STRICT, merged.getMode());
+                assertEquals(7, merged.getBundleVersionRules().size());
+                assertEquals(expected.toJSONObject(), merged.toJSONObject());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
@@ -18,28 +18,42 @@
  */
 package org.apache.sling.feature.extension.apiregions;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.Feature;
 import org.apache.sling.feature.Prototype;
 import org.apache.sling.feature.builder.BuilderContext;
 import org.apache.sling.feature.builder.FeatureBuilder;
+import org.apache.sling.feature.builder.HandlerContext;
 import org.apache.sling.feature.extension.apiregions.api.config.ConfigurationApi;
 import org.apache.sling.feature.extension.apiregions.api.config.ConfigurationDescription;
 import org.apache.sling.feature.extension.apiregions.api.config.ConfigurationDescriptionAddition;
 import org.apache.sling.feature.extension.apiregions.api.config.FactoryConfigurationDescription;
 import org.apache.sling.feature.extension.apiregions.api.config.FactoryConfigurationDescriptionAddition;
 import org.apache.sling.feature.extension.apiregions.api.config.FrameworkPropertyDescription;
+import org.apache.sling.feature.extension.apiregions.api.config.Mode;
 import org.apache.sling.feature.extension.apiregions.api.config.PropertyDescription;
 import org.apache.sling.feature.extension.apiregions.api.config.PropertyDescriptionAddition;
 import org.apache.sling.feature.extension.apiregions.api.config.Region;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ConfigurationApiMergeHandlerTest {
@@ -672,4 +686,194 @@ public class ConfigurationApiMergeHandlerTest {
         final ArtifactId id = ArtifactId.parse("g:m:1");
         FeatureBuilder.assemble(id, context, featureA, featureB);
     }
+
+    private static String mergeSequentially(final List<Feature> features) {
+        final BuilderContext context = new BuilderContext(id -> null);
+        context.addMergeExtensions(new ConfigurationApiMergeHandler());
+        try {
+            final Feature result =
+                    FeatureBuilder.assemble(ArtifactId.parse("g:m:1"), context, features.toArray(new Feature[0]));
+            return ConfigurationApi.getConfigurationApi(result).toJSONObject().toString();
+        } catch (final IllegalStateException | IOException e) {
+            return "error";
+        }
+    }
+
+    private static String mergeAsTree(final List<Feature> features, final ForkJoinPool pool) {
+        final Map<ArtifactId, ConfigurationApi> sources = new LinkedHashMap<>();
+        for (final Feature feature : features) {
+            sources.put(feature.getId(), ConfigurationApi.getConfigurationApi(feature));
+        }
+        try {
+            return ConfigurationApiMergeHandler.merge(sources, pool)
+                    .toJSONObject()
+                    .toString();
+        } catch (final IllegalStateException | IOException e) {
+            return "error";
+        }
+    }
+
+    @Test
+    public void testTreeMergeMatchesSequentialMerge() {
+        final Region[] regions = {null, Region.GLOBAL, Region.INTERNAL};
+        final Random random = new Random(7);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int run = 0; run < 200; run++) {
+                final int count = 1 + random.nextInt(6);
+                final List<ConfigurationApi> apis = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    final ConfigurationApi api = new ConfigurationApi();
+                    api.setRegion(regions[random.nextInt(regions.length)]);
+                    api.setMode(Mode.values()[random.nextInt(Mode.values().length)]);
+                    api.getInternalFrameworkProperties().add("fw" + random.nextInt(3));
+                    apis.add(api);
+                }
+                for (int p = 0; p < 4; p++) {
+                    if (random.nextBoolean()) {
+                        final ConfigurationDescription cd = new ConfigurationDescription();
+                        final PropertyDescription pd = new PropertyDescription();
+                        pd.setIncludes(new String[] {"base"});
+                        cd.getPropertyDescriptions().put("p", pd);
+                        apis.get(random.nextInt(count))
+                                .getConfigurationDescriptions()
+                                .put("pid" + p, cd);
+                    }
+                    if (random.nextBoolean()) {
+                        final FactoryConfigurationDescription fcd = new FactoryConfigurationDescription();
+                        fcd.getPropertyDescriptions().put("p", new PropertyDescription());
+                        apis.get(random.nextInt(count))
+                                .getFactoryConfigurationDescriptions()
+                                .put("fpid" + p, fcd);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        if (random.nextInt(4) == 0) {
+                            final ConfigurationDescriptionAddition cda = new ConfigurationDescriptionAddition();
+                            final PropertyDescriptionAddition pda = new PropertyDescriptionAddition();
+                            pda.setIncludes(new String[] {"base", "a" + i});
+                            cda.getPropertyDescriptionAdditions().put(random.nextInt(20) == 0 ? "q" : "p", pda);
+                            apis.get(i).getConfigurationDescriptionAdditions().put("pid" + p, cda);
+                        }
+                        if (random.nextInt(4) == 0) {
+                            final FactoryConfigurationDescriptionAddition fcda =
+                                    new FactoryConfigurationDescriptionAddition();
+                            fcda.getInternalNames().add("n" + i);
+                            apis.get(i)
+                                    .getFactoryConfigurationDescriptionAdditions()
+                                    .put("fpid" + p, fcda);
+                        }
+                    }
+                }
+                final List<Feature> features = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    final Feature feature = new Feature(ArtifactId.parse("g:f" + i + ":1"));
+                    ConfigurationApi.setConfigurationApi(feature, apis.get(i));
+                    features.add(feature);
+                }
+
+                final String expected = mergeSequentially(features);
+                assertEquals(expected, mergeAsTree(features, null));
+                assertEquals(expected, mergeAsTree(features, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMergeKeepsTargetModel() {
+        final ConfigurationApiMergeHandler handler = new ConfigurationApiMergeHandler();
+        final HandlerContext context = Mockito.mock(HandlerContext.class);
+        final Feature target = new Feature(ArtifactId.parse("g:t:1"));
+
+        for (int i = 0; i < 3; i++) {
+            final Feature source = new Feature(ArtifactId.parse("g:s" + i + ":1"));
+            final ConfigurationApi api = new ConfigurationApi();
+            api.getConfigurationDescriptions().put("pid" + i, new ConfigurationDescription());
+            ConfigurationApi.setConfigurationApi(source, api);
+
+            handler.merge(
+                    context,
+                    target,
+                    source,
+                    target.getExtensions().getByName(ConfigurationApi.EXTENSION_NAME),
+                    source.getExtensions().getByName(ConfigurationApi.EXTENSION_NAME));
+            if (i == 1) {
+                // change the target outside of the handler
+                final ConfigurationApi changed = ConfigurationApi.getConfigurationApi(target);
+                changed.getConfigurationDescriptions().put("external", new ConfigurationDescription());
+                ConfigurationApi.setConfigurationApi(target, changed);
+            }
+        }
+
+        final ConfigurationApi result = ConfigurationApi.getConfigurationApi(target);
+        assertEquals(
+                Arrays.asList("pid0", "pid1", "external", "pid2"),
+                new ArrayList<>(result.getConfigurationDescriptions().keySet()));
+        assertEquals(3, result.getFeatureToRegionCache().size());
+    }
+
+    @Test
+    public void testIncludesSetOncePerProperty() {
+        final ConfigurationDescription cd = new ConfigurationDescription();
+        final PropertyDescription pd = new PropertyDescription();
+        final String[] original = {"a", "a"};
+        pd.setIncludes(original);
+        cd.getPropertyDescriptions().put("p", pd);
+
+        final Map<PropertyDescription, Set<String>> includes = new IdentityHashMap<>();
+        for (final String[] values : new String[][] {{"b"}, {"a", "c"}, {"b", "d"}}) {
+            final ConfigurationDescriptionAddition cda = new ConfigurationDescriptionAddition();
+            final PropertyDescriptionAddition pda = new PropertyDescriptionAddition();
+            pda.setIncludes(values);
+            cda.getPropertyDescriptionAdditions().put("p", pda);
+            ConfigurationApiMergeHandler.processAddition("configuration pid", cd, cda, includes);
+        }
+        // the includes are only set once all additions are processed
+        assertSame(original, pd.getIncludes());
+        ConfigurationApiMergeHandler.setIncludes(includes);
+        assertArrayEquals(new String[] {"a", "b", "c", "d"}, pd.getIncludes());
+    }
+
+    @Test
+    public void testKeptAdditionsAppliedWhenDescriptionArrives() {
+        final BuilderContext context = new BuilderContext(id -> null);
+        context.addMergeExtensions(new ConfigurationApiMergeHandler());
+
+        final List<Feature> features = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Feature feature = new Feature(ArtifactId.parse("g:f" + i + ":1"));
+            final ConfigurationApi api = new ConfigurationApi();
+            if (i == 1) {
+                final ConfigurationDescriptionAddition cda = new ConfigurationDescriptionAddition();
+                final PropertyDescriptionAddition pda = new PropertyDescriptionAddition();
+                pda.setIncludes(new String[] {"b"});
+                cda.getPropertyDescriptionAdditions().put("p", pda);
+                api.getConfigurationDescriptionAdditions().put("pid", cda);
+                api.getConfigurationDescriptionAdditions().put("missing", new ConfigurationDescriptionAddition());
+            } else if (i == 3) {
+                final ConfigurationDescription cd = new ConfigurationDescription();
+                final PropertyDescription pd = new PropertyDescription();
+                pd.setIncludes(new String[] {"a"});
+                cd.getPropertyDescriptions().put("p", pd);
+                api.getConfigurationDescriptions().put("pid", cd);
+            }
+            ConfigurationApi.setConfigurationApi(feature, api);
+            features.add(feature);
+        }
+
+        final Feature result =
+                FeatureBuilder.assemble(ArtifactId.parse("g:m:1"), context, features.toArray(new Feature[0]));
+        final ConfigurationApi api = ConfigurationApi.getConfigurationApi(result);
+        assertArrayEquals(
+                new String[] {"a", "b"},
+                api.getConfigurationDescriptions()
+                        .get("pid")
+                        .getPropertyDescriptions()
+                        .get("p")
+                        .getIncludes());
+        assertEquals(
+                Collections.singleton("missing"),
+                api.getConfigurationDescriptionAdditions().keySet());
+    }
 }
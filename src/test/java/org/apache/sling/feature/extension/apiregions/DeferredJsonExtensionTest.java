@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.json.Json;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionState;
+import org.apache.sling.feature.ExtensionType;
+import org.apache.sling.feature.Feature;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DeferredJsonExtensionTest {
+
+    private static final String NAME = "test-extension";
+
+    private final AtomicInteger writes = new AtomicInteger();
+
+    private final DeferredJsonExtension.Writer<String> writer = model -> {
+        writes.incrementAndGet();
+        return Json.createArrayBuilder().add(model).build();
+    };
+
+    @Test
+    public void testModelIsWrittenWhenRead() {
+        final Feature feature = new Feature(ArtifactId.parse("g:f:1"));
+
+        DeferredJsonExtension.setModel(
+                feature, feature.getExtensions().getByName(NAME), NAME, ExtensionState.OPTIONAL, "a", writer);
+        final Extension ext = feature.getExtensions().getByName(NAME);
+        DeferredJsonExtension.setModel(
+                feature, feature.getExtensions().getByName(NAME), NAME, ExtensionState.OPTIONAL, "b", writer);
+        assertSame(ext, feature.getExtensions().getByName(NAME));
+        assertEquals(0, writes.get());
+
+        assertEquals("[\"b\"]", ext.getJSON());
+        assertEquals(Json.createArrayBuilder().add("b").build(), ext.getJSONStructure());
+        assertEquals(1, writes.get());
+        assertEquals("b", DeferredJsonExtension.getModel(ext, String.class));
+        assertNull(DeferredJsonExtension.getModel(ext, Integer.class));
+    }
+
+    @Test
+    public void testExistingExtensionIsWritten() {
+        final Feature feature = new Feature(ArtifactId.parse("g:f:1"));
+        final Extension existing = new Extension(ExtensionType.JSON, NAME, ExtensionState.REQUIRED);
+        existing.setJSON("[]");
+        feature.getExtensions().add(existing);
+
+        DeferredJsonExtension.setModel(
+                feature, feature.getExtensions().getByName(NAME), NAME, ExtensionState.OPTIONAL, "a", writer);
+        assertSame(existing, feature.getExtensions().getByName(NAME));
+        assertEquals("[\"a\"]", existing.getJSON());
+        assertEquals(1, writes.get());
+        assertNull(DeferredJsonExtension.getModel(existing, String.class));
+    }
+
+    @Test
+    public void testReplacedJsonDropsModel() {
+        final Feature feature = new Feature(ArtifactId.parse("g:f:1"));
+        DeferredJsonExtension.setModel(
+                feature, feature.getExtensions().getByName(NAME), NAME, ExtensionState.OPTIONAL, "a", writer);
+        final Extension ext = feature.getExtensions().getByName(NAME);
+
+        ext.setJSON("[\"z\"]");
+        assertNull(DeferredJsonExtension.getModel(ext, String.class));
+        assertEquals("[\"z\"]", ext.getJSON());
+        assertEquals(0, writes.get());
+    }
+
+    @Test
+    public void testCopyAndSerializationArePlainExtensions() throws Exception {
+        final Feature feature = new Feature(ArtifactId.parse("g:f:1"));
+        DeferredJsonExtension.setModel(
+                feature, feature.getExtensions().getByName(NAME), NAME, ExtensionState.OPTIONAL, "a", writer);
+        final Extension ext = feature.getExtensions().getByName(NAME);
+
+        final Extension copy = ext.copy();
+        assertEquals(Extension.class, copy.getClass());
+        assertEquals("[\"a\"]", copy.getJSON());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(ext);
+        }
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            final Extension read = (Extension) ois.readObject();
+            assertEquals(Extension.class, read.getClass());
+            assertEquals("[\"a\"]", read.getJSON());
+        }
+        assertEquals(1, writes.get());
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.sling.feature.extension.apiregions.analyser;
 
 import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -51,6 +52,8 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -92,6 +95,33 @@ public abstract class AbstractApiRegionsAnalyserTaskTest<T extends AbstractApiRe
         assertTrue(errors.isEmpty());
     }
 
+    @Test
+    public void testSharedApiRegions() throws Exception {
+        // the tasks of this module do not change the api regions
+        assertTrue(newTask().useSharedApiRegions());
+
+        final List<ApiRegions> received = new ArrayList<>();
+        analyserTask = new AbstractApiRegionsAnalyserTask() {
+            @Override
+            public String getId() {
+                return "test";
+            }
+
+            @Override
+            public String getName() {
+                return "test";
+            }
+
+            @Override
+            protected void execute(ApiRegions apiRegions, AnalyserTaskContext ctx) {
+                received.add(apiRegions);
+            }
+        };
+        execute("[{\"name\":\"global\",\"exports\":[\"a\"]}]");
+        assertEquals(1, received.size());
+        assertFalse(received.get(0).isFrozen());
+    }
+
     protected final List<String> execute(String apiRegionJSON) throws Exception {
         Extension extension = mock(Extension.class);
         when(extension.getName()).thenReturn(ApiRegions.EXTENSION_NAME);
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionState;
+import org.apache.sling.feature.ExtensionType;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ApiRegionsCacheTest {
+
+    private Feature createFeature(final String json) {
+        final Feature f = new Feature(ArtifactId.parse("g:a:1.0"));
+        final Extension e = new Extension(ExtensionType.JSON, ApiRegions.EXTENSION_NAME, ExtensionState.OPTIONAL);
+        e.setJSON(json);
+        f.getExtensions().add(e);
+        return f;
+    }
+
+    @Test
+    public void testNoExtension() {
+        assertNull(ApiRegionsCache.getApiRegions(null));
+        assertNull(ApiRegionsCache.getApiRegions(new Feature(ArtifactId.parse("g:a:1.0"))));
+    }
+
+    @Test
+    public void testCaching() throws Exception {
+        final Feature f = createFeature("[{\"name\":\"global\",\"exports\":[\"a\"]}]");
+
+        final ApiRegions regions = ApiRegionsCache.getApiRegions(f);
+        assertTrue(regions.isFrozen());
+        assertEquals(ApiRegions.getApiRegions(f), regions);
+        assertSame(regions, ApiRegionsCache.getApiRegions(f));
+
+        // same content in a different extension
+        final Feature other = createFeature("[{\"name\":\"global\",\"exports\":[\"a\"]}]");
+        final ApiRegions otherRegions = ApiRegionsCache.getApiRegions(other);
+        assertNotSame(regions, otherRegions);
+        assertEquals(regions, otherRegions);
+
+        // changed content
+        f.getExtensions().getByName(ApiRegions.EXTENSION_NAME).setJSON("[{\"name\":\"global\",\"exports\":[\"b\"]}]");
+        final ApiRegions changed = ApiRegionsCache.getApiRegions(f);
+        assertNotSame(regions, changed);
+        assertEquals(ApiRegions.getApiRegions(f), changed);
+        assertSame(changed, ApiRegionsCache.getApiRegions(f));
+
+        // same content set again
+        f.getExtensions().getByName(ApiRegions.EXTENSION_NAME).setJSON("[{\"name\":\"global\",\"exports\":[\"b\"]}]");
+        assertSame(changed, ApiRegionsCache.getApiRegions(f));
+    }
+}
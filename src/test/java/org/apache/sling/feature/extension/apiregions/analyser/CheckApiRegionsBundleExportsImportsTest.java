@@ -20,8 +20,10 @@ package org.apache.sling.feature.extension.apiregions.analyser;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.sling.feature.Artifact;
@@ -34,10 +36,12 @@ import org.apache.sling.feature.analyser.task.AnalyserTaskContext;
 import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
 import org.apache.sling.feature.scanner.BundleDescriptor;
 import org.apache.sling.feature.scanner.FeatureDescriptor;
+import org.apache.sling.feature.scanner.PackageInfo;
 import org.apache.sling.feature.scanner.impl.BundleDescriptorImpl;
 import org.apache.sling.feature.scanner.impl.FeatureDescriptorImpl;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
@@ -380,6 +384,107 @@ public class CheckApiRegionsBundleExportsImportsTest {
         Mockito.verify(ctx, Mockito.never()).reportWarning(Mockito.anyString());
     }
 
+    @Test
+    /*
+     * Several bundles export org.foo.v in different versions, only the import
+     * with a version range not matching any export is reported.
+     */
+    public void testImportVersionRanges() throws Exception {
+        CheckApiRegionsBundleExportsImports t = new CheckApiRegionsBundleExportsImports();
+
+        Feature f = new Feature(ArtifactId.fromMvnId("f:f:1"));
+        FeatureDescriptor fd = new FeatureDescriptorImpl(f);
+
+        fdAddBundle(fd, "g:e3:1", new String[] {"3.0.0"}, new String[0]);
+        fdAddBundle(fd, "g:e1:1", new String[] {"1.0.0", "1.5.0"}, new String[0]);
+        fdAddBundle(fd, "g:e2:1", new String[] {"2.0.0"}, new String[0]);
+        fdAddBundle(fd, "g:i1:1", new String[0], new String[] {"[2.0.0,3.0.0)"});
+        fdAddBundle(fd, "g:i2:1", new String[0], new String[] {"(1.0.0,1.5.0]"});
+        fdAddBundle(fd, "g:i3:1", new String[0], new String[] {"3.0.0"});
+        fdAddBundle(fd, "g:i4:1", new String[0], new String[] {"[4.0.0,5.0.0)"});
+        fdAddBundle(fd, "g:i5:1", new String[0], new String[] {"(1.5.0,2.0.0)"});
+        fdAddBundle(fd, "g:i6:1", new String[0], new String[] {null});
+
+        AnalyserTaskContext ctx = Mockito.mock(AnalyserTaskContext.class);
+        Mockito.when(ctx.getFeature()).thenReturn(f);
+        Mockito.when(ctx.getFeatureDescriptor()).thenReturn(fd);
+        t.execute(ctx);
+
+        Mockito.verify(ctx)
+                .reportArtifactError(
+                        Mockito.eq(ArtifactId.fromMvnId("g:i4:1")), Mockito.contains("in the required version range"));
+        Mockito.verify(ctx)
+                .reportArtifactError(
+                        Mockito.eq(ArtifactId.fromMvnId("g:i5:1")), Mockito.contains("in the required version range"));
+        Mockito.verify(ctx, Mockito.times(2)).reportArtifactError(Mockito.any(), Mockito.anyString());
+        Mockito.verify(ctx, Mockito.never()).reportError(Mockito.anyString());
+    }
+
+    @Test
+    public void testParallelResolutionMatchesSequential() throws Exception {
+        Feature f = new Feature(ArtifactId.fromMvnId("f:f:1"));
+        FeatureDescriptor fd = new FeatureDescriptorImpl(f);
+
+        fdAddBundle(fd, "g:e1:1", new String[] {"1.0.0"}, new String[0]);
+        fdAddBundle(fd, "g:e2:1", new String[] {"2.0.0"}, new String[0]);
+        for (int i = 0; i < 20; i++) {
+            fdAddBundle(fd, "g:i" + i + ":1", new String[0], new String[] {"[" + (i % 4) + ".0.0,3.0.0)"});
+        }
+        fdAddBundle(fd, "g:b3:1", "test-bundle3.jar");
+
+        final List<String> sequential = executeAndCollectErrors(f, fd, Collections.emptyMap());
+        assertEquals(6, sequential.size());
+
+        final List<String> parallel = executeAndCollectErrors(f, fd, Collections.singletonMap("parallelism", "4"));
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testInvalidParallelism() throws Exception {
+        final Feature f = new Feature(ArtifactId.fromMvnId("f:f:1"));
+        final FeatureDescriptor fd = new FeatureDescriptorImpl(f);
+        for (final String value : new String[] {"auto", "", "0", "-2"}) {
+            final AnalyserTaskContext ctx = Mockito.mock(AnalyserTaskContext.class);
+            Mockito.when(ctx.getFeature()).thenReturn(f);
+            Mockito.when(ctx.getFeatureDescriptor()).thenReturn(fd);
+            Mockito.when(ctx.getConfiguration()).thenReturn(Collections.singletonMap("parallelism", value));
+            new CheckApiRegionsBundleExportsImports().execute(ctx);
+            Mockito.verify(ctx)
+                    .reportError("Invalid value for configuration parallelism, expected a positive number: " + value);
+        }
+    }
+
+    private List<String> executeAndCollectErrors(Feature f, FeatureDescriptor fd, Map<String, String> cfg)
+            throws Exception {
+        CheckApiRegionsBundleExportsImports t = new CheckApiRegionsBundleExportsImports();
+
+        AnalyserTaskContext ctx = Mockito.mock(AnalyserTaskContext.class);
+        Mockito.when(ctx.getFeature()).thenReturn(f);
+        Mockito.when(ctx.getFeatureDescriptor()).thenReturn(fd);
+        Mockito.when(ctx.getConfiguration()).thenReturn(cfg);
+        t.execute(ctx);
+
+        final ArgumentCaptor<ArtifactId> ids = ArgumentCaptor.forClass(ArtifactId.class);
+        final ArgumentCaptor<String> msgs = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(ctx, Mockito.atLeast(0)).reportArtifactError(ids.capture(), msgs.capture());
+        final List<String> result = new ArrayList<>();
+        for (int i = 0; i < msgs.getAllValues().size(); i++) {
+            result.add(ids.getAllValues().get(i) + " " + msgs.getAllValues().get(i));
+        }
+        return result;
+    }
+
+    private void fdAddBundle(FeatureDescriptor fd, String id, String[] exportVersions, String[] importVersions) {
+        final BundleDescriptor bd = new TestBundleDescriptor(id);
+        for (final String version : exportVersions) {
+            bd.getExportedPackages().add(new PackageInfo("org.foo.v", version, false));
+        }
+        for (final String version : importVersions) {
+            bd.getImportedPackages().add(new PackageInfo("org.foo.v", version, false));
+        }
+        fd.getBundleDescriptors().add(bd);
+    }
+
     private void fdAddBundle(FeatureDescriptor fd, String id, String file, ArtifactId... origins) throws IOException {
         Artifact artifact = new Artifact(ArtifactId.fromMvnId(id));
         artifact.setFeatureOrigins(origins);
@@ -18,9 +18,25 @@
  */
 package org.apache.sling.feature.extension.apiregions.analyser;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionState;
+import org.apache.sling.feature.ExtensionType;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.analyser.task.AnalyserTaskContext;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
+import org.apache.sling.feature.scanner.BundleDescriptor;
+import org.apache.sling.feature.scanner.FeatureDescriptor;
+import org.apache.sling.feature.scanner.PackageInfo;
+import org.apache.sling.feature.scanner.impl.FeatureDescriptorImpl;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -55,6 +71,66 @@ public class CheckApiRegionsDependenciesTest extends AbstractApiRegionsAnalyserT
                 errors.iterator().next());
     }
 
+    @Test
+    public void testErrorsOrderedByRegionPair() throws Exception {
+        List<String> errors = execute("[{\"name\": \"global\",\"exports\": [\"org.osgi.util.function\"]},"
+                + "{\"name\": \"deprecated\",\"exports\": [\"org.objectweb.asm\"]},"
+                + "{\"name\": \"internal\",\"exports\": [\"org.osgi.util.function\", \"org.objectweb.asm\"]}]");
+
+        assertEquals(
+                Arrays.asList(
+                        "Bundle 'org.osgi:org.osgi.util.function:1.0.0' (defined in feature 'org.apache.sling.testing:org.apache.sling.testing.apiregions:1.0.0') exports package 'org.osgi.util.function' that is declared in the visible 'global' region, which uses package 'org.objectweb.asm' that is in the non-visible 'deprecated' region",
+                        "Bundle 'org.osgi:org.osgi.util.function:1.0.0' (defined in feature 'org.apache.sling.testing:org.apache.sling.testing.apiregions:1.0.0') exports package 'org.osgi.util.function' that is declared in both visible 'global' and non-visible 'internal' APIs regions"),
+                errors);
+    }
+
+    @Test
+    public void testTransitiveUses() throws Exception {
+        Feature feature = new Feature(ArtifactId.fromMvnId("g:feature:1"));
+        Extension extension = new Extension(ExtensionType.JSON, ApiRegions.EXTENSION_NAME, ExtensionState.OPTIONAL);
+        extension.setJSON("[{\"name\": \"global\",\"exports\": [\"p.a\", \"p.d\"]},"
+                + "{\"name\": \"internal\",\"exports\": [\"p.c\", \"p.e\"]}]");
+        feature.getExtensions().add(extension);
+
+        FeatureDescriptor fd = new FeatureDescriptorImpl(feature);
+        BundleDescriptor bd = new TestBundleDescriptor("g:b:1");
+        // p.a -> p.b -> p.c -> p.b, p.d -> p.e
+        bd.getExportedPackages().add(new PackageInfo("p.a", "1", false, Collections.singleton("p.b")));
+        bd.getExportedPackages().add(new PackageInfo("p.b", "1", false, Collections.singleton("p.c")));
+        bd.getExportedPackages().add(new PackageInfo("p.c", "1", false, Collections.singleton("p.b")));
+        bd.getExportedPackages().add(new PackageInfo("p.d", "1", false, Collections.singleton("p.e")));
+        bd.getExportedPackages().add(new PackageInfo("p.e", "1", false, Collections.emptySet()));
+        fd.getBundleDescriptors().add(bd);
+
+        AnalyserTaskContext ctx = Mockito.mock(AnalyserTaskContext.class);
+        Mockito.when(ctx.getFeature()).thenReturn(feature);
+        Mockito.when(ctx.getFeatureDescriptor()).thenReturn(fd);
+        Mockito.when(ctx.getConfiguration()).thenReturn(Collections.emptyMap());
+        new CheckApiRegionsDependencies().execute(ctx);
+
+        // only the direct use is reported by default
+        ArgumentCaptor<String> msgs = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(ctx).reportArtifactError(Mockito.any(), msgs.capture());
+        assertEquals(
+                "Bundle 'g:b:1' (defined in feature 'g:feature:1') exports package 'p.d' that is declared in the visible 'global' region, which uses package 'p.e' that is in the non-visible 'internal' region",
+                msgs.getValue());
+
+        ctx = Mockito.mock(AnalyserTaskContext.class);
+        Mockito.when(ctx.getFeature()).thenReturn(feature);
+        Mockito.when(ctx.getFeatureDescriptor()).thenReturn(fd);
+        Mockito.when(ctx.getConfiguration()).thenReturn(Collections.singletonMap("check-transitive-uses", "true"));
+        new CheckApiRegionsDependencies().execute(ctx);
+
+        msgs = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(ctx, Mockito.times(2)).reportArtifactError(Mockito.any(), msgs.capture());
+        assertEquals(
+                new HashSet<>(
+                        Arrays.asList(
+                                "Bundle 'g:b:1' (defined in feature 'g:feature:1') exports package 'p.a' that is declared in the visible 'global' region, which transitively uses package 'p.c' that is in the non-visible 'internal' region",
+                                "Bundle 'g:b:1' (defined in feature 'g:feature:1') exports package 'p.d' that is declared in the visible 'global' region, which uses package 'p.e' that is in the non-visible 'internal' region")),
+                new HashSet<>(msgs.getAllValues()));
+    }
+
     @Test
     public void testValidApiRegionJson() throws Exception {
         List<String> errors = execute("[{\"name\": \"global\",\"exports\": [\"org.osgi.util.function\"]}]");
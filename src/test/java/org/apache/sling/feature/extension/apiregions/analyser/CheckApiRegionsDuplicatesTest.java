@@ -46,4 +46,23 @@ public class CheckApiRegionsDuplicatesTest extends AbstractApiRegionsAnalyserTas
                         .startsWith(
                                 "Regions 'global' and 'deprecated' defined in feature 'org.apache.sling.testing:org.apache.sling.testing.apiregions:1.0.0' declare both 1 package(s)"));
     }
+
+    @Test
+    public void testDuplicatesGroupedPerRegionPair() throws Exception {
+        List<String> errors = execute("[{\"name\": \"global\",\"exports\": [\"a\", \"b\", \"c\"]},"
+                + "{\"name\": \"deprecated\",\"exports\": [\"b\", \"d\"]},"
+                + "{\"name\": \"internal\",\"exports\": [\"a\", \"b\", \"d\"]}]");
+
+        assertEquals(3, errors.size());
+        assertTrue(errors.get(0).startsWith("Regions 'global' and 'deprecated' "));
+        assertTrue(errors.get(0).contains("declare both 1 package(s)"));
+        assertTrue(errors.get(0).contains(" * b"));
+        assertTrue(errors.get(1).startsWith("Regions 'global' and 'internal' "));
+        assertTrue(errors.get(1).contains("declare both 2 package(s)"));
+        assertTrue(errors.get(1).contains(" * a"));
+        assertTrue(errors.get(1).contains(" * b"));
+        assertTrue(errors.get(2).startsWith("Regions 'deprecated' and 'internal' "));
+        assertTrue(errors.get(2).contains("declare both 2 package(s)"));
+        assertTrue(errors.get(2).contains(" * d"));
+    }
 }
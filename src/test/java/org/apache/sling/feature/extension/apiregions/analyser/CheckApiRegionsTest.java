@@ -22,6 +22,7 @@ import java.util.List;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -50,4 +51,16 @@ public class CheckApiRegionsTest extends AbstractApiRegionsAnalyserTaskTest<Chec
         List<String> errors = execute("[{\"name\": \"global\",\"exports\": [\"org.osgi.util.function\"]}]");
         assertTrue(errors.toString(), errors.isEmpty());
     }
+
+    @Test
+    public void testMissingPackagesPerRegion() throws Exception {
+        List<String> errors = execute("[{\"name\": \"global\",\"exports\": [\"org.osgi.util.function\", \"a\", \"b\"]},"
+                + "{\"name\": \"internal\",\"exports\": [\"org.osgi.util.function\"]}]");
+
+        assertEquals(1, errors.size());
+        assertEquals(
+                String.format(
+                        "Region 'global' defined in feature 'org.apache.sling.testing:org.apache.sling.testing.apiregions:1.0.0' declares 2 packages which are not exported by any bundle:%n * a%n * b%n"),
+                errors.get(0));
+    }
 }
@@ -19,13 +19,13 @@
 package org.apache.sling.feature.extension.apiregions.analyser;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.jar.Manifest;
 
 import org.apache.sling.feature.Artifact;
@@ -50,6 +50,7 @@ import org.mockito.Mockito;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.never;
 
@@ -58,19 +59,26 @@ public class CheckDeprecatedApiTest {
     private static final String API_REGIONS_JSON = "[{\"name\":\"global\",\"feature-origins\":[\"g:feature:1\"],"
             + "\"exports\":[{\"name\":\"org.foo.deprecated\",\"deprecated\":\"deprecated\"}]}]";
 
+    private static BitSet mask(final int... ordinals) {
+        final BitSet result = new BitSet();
+        for (final int i : ordinals) {
+            result.set(i);
+        }
+        return result;
+    }
+
     @Test
     public void testIsInAllowedRegion() {
         final CheckDeprecatedApi analyser = new CheckDeprecatedApi();
 
-        final Set<String> allowedRegions = new HashSet<>(Arrays.asList("deprecated", "global"));
+        // global = 0, deprecated = 1, internal = 2, foo = 3
+        final BitSet allowedRegions = mask(0, 1);
 
-        assertTrue(analyser.isInAllowedRegion(
-                new HashSet<>(Arrays.asList("deprecated", "global")), "deprecated", allowedRegions));
-        assertFalse(analyser.isInAllowedRegion(
-                new HashSet<>(Arrays.asList("deprecated", "global", "internal")), "deprecated", allowedRegions));
-        assertTrue(
-                analyser.isInAllowedRegion(new HashSet<>(Arrays.asList("deprecated")), "deprecated", allowedRegions));
-        assertFalse(analyser.isInAllowedRegion(new HashSet<>(Arrays.asList("foo")), "deprecated", allowedRegions));
+        assertTrue(analyser.isInAllowedRegion(mask(1, 0), 1, allowedRegions));
+        assertFalse(analyser.isInAllowedRegion(mask(1, 0, 2), 1, allowedRegions));
+        assertTrue(analyser.isInAllowedRegion(mask(1), 1, allowedRegions));
+        assertFalse(analyser.isInAllowedRegion(mask(3), 1, allowedRegions));
+        assertFalse(analyser.isInAllowedRegion(mask(1), -1, allowedRegions));
     }
 
     @Test
@@ -81,14 +89,9 @@ public class CheckDeprecatedApiTest {
         regions.add(new ApiRegion("global"));
         regions.add(new ApiRegion("deprecated"));
         regions.add(new ApiRegion("internal"));
-        assertEquals(
-                new HashSet<>(Arrays.asList("global")), analyser.getAllowedRegions(regions.getRegionByName("global")));
-        assertEquals(
-                new HashSet<>(Arrays.asList("global", "deprecated")),
-                analyser.getAllowedRegions(regions.getRegionByName("deprecated")));
-        assertEquals(
-                new HashSet<>(Arrays.asList("global", "deprecated", "internal")),
-                analyser.getAllowedRegions(regions.getRegionByName("internal")));
+        assertEquals(mask(0), analyser.getAllowedRegions(regions, regions.getRegionByName("global")));
+        assertEquals(mask(0, 1), analyser.getAllowedRegions(regions, regions.getRegionByName("deprecated")));
+        assertEquals(mask(0, 1, 2), analyser.getAllowedRegions(regions, regions.getRegionByName("internal")));
     }
 
     @Test
@@ -106,9 +109,14 @@ public class CheckDeprecatedApiTest {
         region.add(e2);
         region.add(e3);
 
+        final ApiRegions regions = new ApiRegions();
+        regions.add(region);
+        final RegionAnalysisIndex index = RegionAnalysisIndex.getIndex(
+                new FeatureDescriptorImpl(new Feature(ArtifactId.fromMvnId("g:feature:1"))), regions);
+
         // only e1 should be returned
-        final Map<String, DeprecatedPackage> exports =
-                analyser.calculateDeprecatedPackages(region, Collections.emptyMap());
+        final Map<String, DeprecatedPackage> exports = analyser.calculateDeprecatedPackages(
+                analyser.calculateDeclaredDeprecatedPackages(index, Collections.singletonList(region)), region);
         assertEquals(1, exports.size());
         final DeprecatedPackage exp = exports.get("e1");
         assertNotNull(exp);
@@ -117,6 +125,37 @@ public class CheckDeprecatedApiTest {
                 exp.getDeprecationInfo().getMessage());
     }
 
+    @Test
+    public void testCalculateDeprecatedPackagesWithParents() throws Exception {
+        final CheckDeprecatedApi analyser = new CheckDeprecatedApi();
+
+        final ApiRegions regions = ApiRegions.parse("[{\"name\":\"global\",\"feature-origins\":[\"g:f:1\"],"
+                + "\"exports\":[{\"name\":\"e1\",\"deprecated\":\"global-e1\"},"
+                + "{\"name\":\"e2\",\"deprecated\":\"global-e2\"}]},"
+                + "{\"name\":\"deprecated\",\"feature-origins\":[\"g:f:1\"],"
+                + "\"exports\":[{\"name\":\"e1\",\"deprecated\":\"deprecated-e1\"}]},"
+                + "{\"name\":\"internal\",\"feature-origins\":[\"g:f:1\"],\"exports\":[\"e3\"]}]");
+        final ApiRegion global = regions.getRegionByName("global");
+        final ApiRegion deprecated = regions.getRegionByName("deprecated");
+        final ApiRegion internal = regions.getRegionByName("internal");
+        final RegionAnalysisIndex index = RegionAnalysisIndex.getIndex(
+                new FeatureDescriptorImpl(new Feature(ArtifactId.fromMvnId("g:feature:1"))), regions);
+
+        final Map<ApiRegion, Map<String, DeprecatedPackage>> declared =
+                analyser.calculateDeclaredDeprecatedPackages(index, Arrays.asList(global, internal));
+        assertEquals(3, declared.size());
+
+        final Map<String, DeprecatedPackage> inGlobal = analyser.calculateDeprecatedPackages(declared, global);
+        assertEquals(2, inGlobal.size());
+        assertEquals("global-e1", inGlobal.get("e1").getDeprecationInfo().getMessage());
+
+        // the closest region wins, packages of shared parents are calculated once
+        final Map<String, DeprecatedPackage> inInternal = analyser.calculateDeprecatedPackages(declared, internal);
+        assertEquals(2, inInternal.size());
+        assertEquals("deprecated-e1", inInternal.get("e1").getDeprecationInfo().getMessage());
+        assertSame(inGlobal.get("e2"), inInternal.get("e2"));
+    }
+
     @Test
     public void testOptionalImportIgnoredByDefault() throws Exception {
         final CheckDeprecatedApi analyser = new CheckDeprecatedApi();
@@ -416,6 +455,51 @@ public class CheckDeprecatedApiTest {
         assertTrue(msgs.stream().anyMatch(m -> m.contains("org.foo.c") && !m.contains("com.example:lib:1")));
     }
 
+    @Test
+    public void testFindingMessages() {
+        final ArtifactId id = ArtifactId.fromMvnId("g:importer:1.0.0");
+        final DeprecationInfo info = new DeprecationInfo("deprecated a");
+        info.setSince("1.0");
+        info.setForRemoval("2030-01-01");
+
+        final DeprecatedApiFinding single = new DeprecatedApiFinding(id, null, "org.foo.a", false, info, -1);
+        assertEquals(
+                "Usage of deprecated package found : org.foo.a : deprecated a Deprecated since 1.0 For removal : 2030-01-01",
+                single.getMessage());
+        assertFalse(single.isRemovalImminent());
+
+        final DeprecatedApiFinding library =
+                new DeprecatedApiFinding(id, "com.example:lib:1", "org.foo.a", true, info, 30);
+        library.addPackage("org.foo.b");
+        assertEquals(Arrays.asList("org.foo.a", "org.foo.b"), library.getPackages());
+        assertTrue(library.isError());
+        assertTrue(library.isRemovalImminent());
+        assertEquals(
+                "Usage of deprecated library found : com.example:lib:1, package(s) : org.foo.a, org.foo.b : deprecated a"
+                        + " Deprecated since 1.0 The package is scheduled to be removed in less than 30 days by 2030-01-01",
+                library.getMessage());
+    }
+
+    @Test
+    public void testReportFindings() throws Exception {
+        final List<DeprecatedApiFinding> findings = new ArrayList<>();
+        final CheckDeprecatedApi analyser = new CheckDeprecatedApi() {
+            @Override
+            void report(final AnalyserTaskContext context, final DeprecatedApiFinding finding) {
+                findings.add(finding);
+            }
+        };
+        final AnalyserTaskContext ctx =
+                createContext(Collections.singletonMap("check-optional-imports", "true"), false);
+        analyser.execute(ctx);
+
+        Mockito.verify(ctx, never()).reportArtifactWarning(Mockito.any(), Mockito.anyString());
+        assertEquals(1, findings.size());
+        assertEquals(
+                Collections.singletonList("org.foo.deprecated"), findings.get(0).getPackages());
+        assertEquals("deprecated", findings.get(0).getDeprecationMessage());
+    }
+
     private static final class TestBundleDescriptor extends BundleDescriptor {
         private final Artifact artifact;
 
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IdentityCacheTest {
+
+    @Test
+    public void testCache() {
+        final IdentityCache<Object, String> cache = new IdentityCache<>(2);
+        final Object k1 = new Object();
+        final Object k2 = new Object();
+        final Object k3 = new Object();
+
+        assertNull(cache.get(k1, v -> true));
+        cache.put(k1, "a");
+        assertEquals("a", cache.get(k1, v -> true));
+
+        // invalid values are removed
+        assertNull(cache.get(k1, v -> false));
+        assertNull(cache.get(k1, v -> true));
+
+        // one value per key
+        cache.put(k1, "a");
+        cache.put(k1, "b");
+        assertEquals("b", cache.get(k1, v -> true));
+
+        // oldest value is dropped
+        cache.put(k2, "c");
+        cache.put(k3, "d");
+        assertNull(cache.get(k1, v -> true));
+        assertEquals("c", cache.get(k2, v -> true));
+        assertEquals("d", cache.get(k3, v -> true));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+import org.apache.sling.feature.Artifact;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.extension.apiregions.api.ApiRegions;
+import org.apache.sling.feature.scanner.BundleDescriptor;
+import org.apache.sling.feature.scanner.FeatureDescriptor;
+import org.apache.sling.feature.scanner.impl.BundleDescriptorImpl;
+import org.apache.sling.feature.scanner.impl.FeatureDescriptorImpl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RegionAnalysisIndexTest {
+
+    private BundleDescriptor addBundle(FeatureDescriptor fd, String id, String file, ArtifactId... origins)
+            throws Exception {
+        final File root = new File(getClass().getResource("/test-framework.jar").getFile()).getParentFile();
+        final Artifact artifact = new Artifact(ArtifactId.fromMvnId(id));
+        artifact.setFeatureOrigins(origins);
+        final BundleDescriptor bd =
+                new BundleDescriptorImpl(artifact, new File(root, file).toURI().toURL(), 0);
+        fd.getBundleDescriptors().add(bd);
+        return bd;
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        final ApiRegions regions = ApiRegions.parse("[{\"name\":\"global\",\"feature-origins\":[\"f:f1:1\"]},"
+                        + "{\"name\":\"internal\",\"feature-origins\":[\"f:f1:1\",\"f:f2:1\"]}]")
+                .freeze();
+
+        final FeatureDescriptor fd = new FeatureDescriptorImpl(new Feature(ArtifactId.fromMvnId("f:f:1")));
+        final BundleDescriptor b1 = addBundle(fd, "g:b1:1", "test-bundle1.jar", ArtifactId.fromMvnId("f:f1:1"));
+        final BundleDescriptor b2 = addBundle(fd, "g:b2:1", "test-bundle2.jar", ArtifactId.fromMvnId("f:f2:1"));
+        final BundleDescriptor b3 = addBundle(fd, "g:b3:1", "test-bundle3.jar");
+
+        final RegionAnalysisIndex index = RegionAnalysisIndex.getIndex(fd, regions);
+        assertSame(regions, index.getApiRegions());
+        assertSame(index, RegionAnalysisIndex.getIndex(fd, regions));
+
+        assertEquals(BitSet.valueOf(new long[] {3}), index.getBundleRegions(b1));
+        assertEquals(BitSet.valueOf(new long[] {2}), index.getBundleRegions(b2));
+        assertTrue(index.getBundleRegions(b3).isEmpty());
+        assertEquals(BitSet.valueOf(new long[] {3}), index.getRegionsByFeature(ArtifactId.fromMvnId("f:f1:1")));
+        assertEquals(BitSet.valueOf(new long[] {3}), index.getAllowedRegions(regions.getRegionByName("internal")));
+
+        assertEquals(Arrays.asList(b1, b2), index.getExporters("org.foo.a"));
+        assertEquals(Collections.singletonList(b1), index.getExporters("org.foo.b"));
+        assertEquals(Collections.singletonList(b2), index.getExporters("org.foo.d"));
+        assertTrue(index.getExporters("org.foo.unknown").isEmpty());
+
+        // adding a bundle creates a new index
+        addBundle(fd, "g:b4:1", "test-bundle4.jar");
+        assertNotSame(index, RegionAnalysisIndex.getIndex(fd, regions));
+
+        // different regions create a new index
+        assertNotSame(
+                RegionAnalysisIndex.getIndex(fd, regions), RegionAnalysisIndex.getIndex(fd, new ApiRegions().freeze()));
+
+        // mutable regions are not cached
+        final ApiRegions mutable = new ApiRegions();
+        assertNotSame(RegionAnalysisIndex.getIndex(fd, mutable), RegionAnalysisIndex.getIndex(fd, mutable));
+    }
+}
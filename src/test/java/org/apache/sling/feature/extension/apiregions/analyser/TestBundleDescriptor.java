@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.net.URL;
+import java.util.jar.Manifest;
+
+import org.apache.sling.feature.Artifact;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.scanner.BundleDescriptor;
+
+/**
+ * Bundle descriptor without a bundle file, the exported and imported
+ * packages are added by the test.
+ */
+class TestBundleDescriptor extends BundleDescriptor {
+
+    private final Artifact artifact;
+
+    TestBundleDescriptor(final String id) {
+        this(new Artifact(ArtifactId.fromMvnId(id)));
+    }
+
+    TestBundleDescriptor(final Artifact artifact) {
+        super(artifact.getId().toMvnId());
+        this.artifact = artifact;
+    }
+
+    @Override
+    public URL getArtifactFile() {
+        return null;
+    }
+
+    @Override
+    public Artifact getArtifact() {
+        return artifact;
+    }
+
+    @Override
+    public Manifest getManifest() {
+        return null;
+    }
+
+    @Override
+    public String getBundleVersion() {
+        return artifact.getId().getOSGiVersion().toString();
+    }
+
+    @Override
+    public String getBundleSymbolicName() {
+        return artifact.getId().getArtifactId();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.extension.apiregions.analyser;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WildcardMatcherTest {
+
+    @Test
+    public void testNoPatterns() {
+        final WildcardMatcher m = new WildcardMatcher(Collections.emptySet());
+        assertFalse(m.matches("a.b.c"));
+        assertFalse(m.matches(""));
+    }
+
+    @Test
+    public void testExactAndPrefix() {
+        final WildcardMatcher m = new WildcardMatcher(Arrays.asList("a.b.c", "x.y.*", "x.yz", "org.apache*"));
+        assertTrue(m.matches("a.b.c"));
+        assertFalse(m.matches("a.b"));
+        assertFalse(m.matches("a.b.c.d"));
+
+        assertTrue(m.matches("x.y."));
+        assertTrue(m.matches("x.y.z"));
+        assertFalse(m.matches("x.y"));
+        assertTrue(m.matches("x.yz"));
+        assertFalse(m.matches("x.yza"));
+
+        assertTrue(m.matches("org.apache"));
+        assertTrue(m.matches("org.apache.sling"));
+        assertFalse(m.matches("org.apach"));
+    }
+
+    @Test
+    public void testMatchAll() {
+        final WildcardMatcher m = new WildcardMatcher(Collections.singleton("*"));
+        assertTrue(m.matches(""));
+        assertTrue(m.matches("anything"));
+    }
+}
@@ -18,17 +18,26 @@
  */
 package org.apache.sling.feature.extension.apiregions.api;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
+import jakarta.json.JsonException;
 import jakarta.json.JsonReader;
+import jakarta.json.JsonWriter;
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.Extension;
 import org.apache.sling.feature.ExtensionState;
@@ -36,11 +45,14 @@ import org.apache.sling.feature.ExtensionType;
 import org.apache.sling.feature.Feature;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ApiRegionsTest {
 
@@ -145,6 +157,157 @@ public class ApiRegionsTest {
         assertTrue(three.listExports().contains(new ApiExport("c")));
     }
 
+    @Test
+    public void testExportsByName() throws Exception {
+        final ApiRegion region = new ApiRegion("one");
+        final ApiExport a = new ApiExport("a");
+        final ApiExport b = new ApiExport("b");
+        final ApiExport c = new ApiExport("c");
+
+        assertTrue(region.add(c));
+        assertTrue(region.add(a));
+        assertTrue(region.add(b));
+        assertFalse(region.add(new ApiExport("a")));
+
+        final Iterator<ApiExport> iter = region.listExports().iterator();
+        assertEquals(c, iter.next());
+        assertEquals(a, iter.next());
+        assertEquals(b, iter.next());
+        assertFalse(iter.hasNext());
+
+        assertSame(a, region.getExportByName("a"));
+        assertNull(region.getExportByName("d"));
+
+        assertTrue(region.remove(a));
+        assertNull(region.getExportByName("a"));
+        assertFalse(region.remove(a));
+        assertTrue(region.add(new ApiExport("a")));
+        assertEquals(3, region.listExports().size());
+    }
+
+    @Test
+    public void testAllExportsFollowParentChanges() throws Exception {
+        final ApiRegions regions = new ApiRegions();
+
+        final ApiRegion one = new ApiRegion("one");
+        one.setFeatureOrigins(ArtifactId.fromMvnId("f:f1:1"));
+        final ApiRegion two = new ApiRegion("two");
+        two.setFeatureOrigins(ArtifactId.fromMvnId("f:f1:1"));
+        final ApiRegion three = new ApiRegion("three");
+        three.setFeatureOrigins(ArtifactId.fromMvnId("f:f1:1"));
+        three.add(new ApiExport("c"));
+
+        assertTrue(regions.add(one));
+        assertTrue(regions.add(two));
+        assertTrue(regions.add(three));
+
+        assertEquals(1, three.listAllExports().size());
+        assertNull(three.getAllExportByName("a"));
+
+        final ApiExport a = new ApiExport("a");
+        one.add(a);
+        assertEquals(2, three.listAllExports().size());
+        assertSame(a, three.getAllExportByName("a"));
+        assertSame(a, two.getAllExportByName("a"));
+
+        // the parent export wins
+        two.add(new ApiExport("c"));
+        assertSame(two.getExportByName("c"), three.getAllExportByName("c"));
+
+        one.remove(a);
+        assertNull(three.getAllExportByName("a"));
+        assertEquals(2, three.listAllExports().size());
+    }
+
+    @Test
+    public void testRegionsByFeature() throws Exception {
+        final ArtifactId f1 = ArtifactId.fromMvnId("f:f1:1");
+        final ArtifactId f2 = ArtifactId.fromMvnId("f:f2:1");
+        final ArtifactId f3 = ArtifactId.fromMvnId("f:f3:1");
+
+        final ApiRegions regions = new ApiRegions();
+        final ApiRegion one = new ApiRegion("one");
+        one.setFeatureOrigins(f1);
+        final ApiRegion two = new ApiRegion("two");
+        two.setFeatureOrigins(f1, f2);
+        assertTrue(regions.add(one));
+        assertTrue(regions.add(two));
+
+        assertArrayEquals(new ApiRegion[] {one, two}, regions.getRegionsByFeature(f1));
+        assertArrayEquals(new ApiRegion[] {two}, regions.getRegionsByFeature(f2));
+        assertEquals(0, regions.getRegionsByFeature(f3).length);
+        assertEquals(Arrays.asList(one, two), regions.listRegionsByFeature(f1));
+        assertSame(regions.listRegionsByFeature(f1), regions.listRegionsByFeature(f1));
+        assertTrue(regions.listRegionsByFeature(f3).isEmpty());
+
+        // changes to unrelated regions keep the index
+        final List<ApiRegion> f1Regions = regions.listRegionsByFeature(f1);
+        new ApiRegion("other").setFeatureOrigins(f1);
+        assertSame(f1Regions, regions.listRegionsByFeature(f1));
+
+        two.setFeatureOrigins(f2, f3);
+        assertArrayEquals(new ApiRegion[] {one}, regions.getRegionsByFeature(f1));
+        assertEquals(Collections.singletonList(one), regions.listRegionsByFeature(f1));
+        assertArrayEquals(new ApiRegion[] {two}, regions.getRegionsByFeature(f3));
+
+        final ApiRegion three = new ApiRegion("three");
+        three.setFeatureOrigins(f3);
+        assertTrue(regions.add(three));
+        assertArrayEquals(new ApiRegion[] {two, three}, regions.getRegionsByFeature(f3));
+    }
+
+    @Test
+    public void testRegionMasks() throws Exception {
+        final ArtifactId f1 = ArtifactId.fromMvnId("f:f1:1");
+        final ArtifactId f2 = ArtifactId.fromMvnId("f:f2:1");
+
+        final ApiRegions regions = new ApiRegions();
+        final ApiRegion one = new ApiRegion("one");
+        one.setFeatureOrigins(f1);
+        final ApiRegion two = new ApiRegion("two");
+        two.setFeatureOrigins(f1, f2);
+        final ApiRegion three = new ApiRegion("three");
+        three.setFeatureOrigins(f2);
+        assertTrue(regions.add(one));
+        assertTrue(regions.add(two));
+        assertTrue(regions.add(three));
+
+        assertEquals(0, regions.getRegionOrdinal(one));
+        assertEquals(1, regions.getRegionOrdinal(two));
+        assertEquals(2, regions.getRegionOrdinal(three));
+        assertEquals(-1, regions.getRegionOrdinal(new ApiRegion("one")));
+
+        final BitSet f1Mask = new BitSet();
+        f1Mask.set(0, 2);
+        assertEquals(f1Mask, regions.getRegionMaskByFeature(f1));
+        assertEquals(BitSet.valueOf(new long[] {6}), regions.getRegionMaskByFeature(f2));
+        assertTrue(
+                regions.getRegionMaskByFeature(ArtifactId.fromMvnId("f:f3:1")).isEmpty());
+
+        // returned masks of mutable regions are copies
+        regions.getRegionMaskByFeature(f1).clear();
+        assertEquals(f1Mask, regions.getRegionMaskByFeature(f1));
+
+        two.setFeatureOrigins(f2);
+        assertEquals(BitSet.valueOf(new long[] {1}), regions.getRegionMaskByFeature(f1));
+
+        assertEquals(BitSet.valueOf(new long[] {1}), regions.getInheritedRegionMask(one));
+        assertEquals(BitSet.valueOf(new long[] {3}), regions.getInheritedRegionMask(two));
+        assertEquals(BitSet.valueOf(new long[] {7}), regions.getInheritedRegionMask(three));
+        assertTrue(regions.getInheritedRegionMask(new ApiRegion("one")).isEmpty());
+
+        final ApiRegions frozen = regions.freeze();
+        final ApiRegion frozenThree = frozen.getRegionByName("three");
+        assertEquals(2, frozen.getRegionOrdinal(frozenThree));
+        assertEquals(-1, frozen.getRegionOrdinal(three));
+        assertEquals(BitSet.valueOf(new long[] {7}), frozen.getInheritedRegionMask(frozenThree));
+        assertEquals(BitSet.valueOf(new long[] {6}), frozen.getRegionMaskByFeature(f2));
+
+        // frozen regions share their masks
+        assertSame(frozen.getRegionMaskByFeature(f2), frozen.getRegionMaskByFeature(f2));
+        assertSame(frozen.getInheritedRegionMask(frozenThree), frozen.getInheritedRegionMask(frozenThree));
+    }
+
     @Test
     public void testNullFeature() {
         assertNull(ApiRegions.getApiRegions((Feature) null));
@@ -221,4 +384,249 @@ public class ApiRegionsTest {
         final ApiRegions regions2 = ApiRegions.parse(regions.toJSONArray());
         assertEquals(regions, regions2);
     }
+
+    @Test
+    public void testStreamingParser() throws Exception {
+        for (final String name : new String[] {"apis", "apis-deprecation", "apis-toggles"}) {
+            final String json = readJSON(name);
+            final ApiRegions expected;
+            try (final JsonReader reader = Json.createReader(new StringReader(json))) {
+                expected = ApiRegions.parse(reader.readArray());
+            }
+            assertEquals(expected, ApiRegions.parse(new StringReader(json)));
+            assertEquals(expected, ApiRegions.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+        }
+    }
+
+    @Test
+    public void testStreamingParserNameAfterExports() throws Exception {
+        final ApiRegions regions = ApiRegions.parse(
+                "[{\"exports\":[\"a\",{\"toggle\":\"t\",\"name\":\"b\"}],\"name\":\"global\",\"foo\":\"bar\"}]");
+        final ApiRegion global = regions.getRegionByName("global");
+        assertNotNull(global);
+        assertEquals(2, global.listExports().size());
+        assertEquals("t", global.getExportByName("b").getToggle());
+        assertEquals("bar", global.getProperties().get("foo"));
+    }
+
+    @Test
+    public void testStreamingParserErrors() throws Exception {
+        assertParseError(
+                "[{\"name\":\"global\",\"exports\":[\"a\",\"a\"]}]", "Export a is defined twice in region global");
+        assertParseError(
+                "[{\"name\":\"global\",\"exports\":[\"a\",{\"name\":\"a\"}]}]",
+                "Export a is defined twice in region global");
+        assertParseError("[{\"name\":\"global\"},{\"name\":\"global\"}]", "Region global is defined twice");
+        assertParseError(
+                "[{\"name\":\"global\",\"exports\":[{\"name\":\"a\",\"deprecated\":{}}]}]",
+                "Export a has missing info in deprecated");
+        assertParseError(
+                "[{\"name\":\"global\",\"exports\":[{\"name\":\"a\",\"deprecated\":5}]}]",
+                "Export a has wrong type for deprecated : NUMBER");
+        assertParseError(
+                "[{\"name\":\"global\",\"exports\":[5]}]", "Region global has wrong type for package export : NUMBER");
+        assertParseError("[{\"exports\":\"x\",\"name\":\"g\"}]", "Illegal api regions json, exports must be an array");
+        assertParseError(
+                "[{\"name\":\"g\",\"feature-origins\":[{}]}]",
+                "Illegal api regions json, feature-origins must be an array of strings");
+    }
+
+    @Test
+    public void testParserErrorsFromString() throws Exception {
+        try {
+            ApiRegions.parse("[\"x\"]");
+            fail("Expected parse error");
+        } catch (final IOException expected) {
+            assertEquals("Illegal api regions json [\"x\"]", expected.getMessage());
+        }
+        try {
+            ApiRegions.parse("[{\"name\":5}]");
+            fail("Expected parse error");
+        } catch (final ClassCastException expected) {
+            // same as parsing the JSON structure
+        }
+        try {
+            ApiRegions.parse("{}");
+            fail("Expected parse error");
+        } catch (final JsonException expected) {
+            // same as parsing the JSON structure
+        }
+        try {
+            ApiRegions.parse("[]x");
+            fail("Expected parse error");
+        } catch (final JsonException expected) {
+            // same as parsing the JSON structure
+        }
+    }
+
+    @Test
+    public void testStreamingParserRejectsTrailingContent() throws Exception {
+        assertParseError("[\"x\"]", "Illegal api regions json \"x\"");
+        assertEquals(0, ApiRegions.parse(new StringReader("[] ")).listRegions().size());
+        try {
+            ApiRegions.parse(new StringReader("[{\"name\":\"global\"}]x"));
+            fail("Expected parse error");
+        } catch (final IOException expected) {
+            // expected
+        }
+        try {
+            ApiRegions.parse(new ByteArrayInputStream("[][]".getBytes(StandardCharsets.UTF_8)));
+            fail("Expected parse error");
+        } catch (final IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStreamingParserLeavesReaderOpen() throws Exception {
+        final boolean[] closed = new boolean[1];
+        final Reader reader = new StringReader("[{\"name\":\"global\"}]") {
+            @Override
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        assertEquals(1, ApiRegions.parse(reader).listRegions().size());
+        assertFalse(closed[0]);
+    }
+
+    private void assertParseError(final String json, final String message) {
+        try {
+            ApiRegions.parse(new StringReader(json));
+            fail("Expected parse error for " + json);
+        } catch (final IOException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testStreamingWriter() throws Exception {
+        final ApiRegions regions = ApiRegions.parse(readJSON("apis-toggles"));
+        final ApiRegion region = regions.getRoot();
+        region.setFeatureOrigins(ArtifactId.fromMvnId("f:f1:1"), ArtifactId.fromMvnId("f:f2:1"));
+        region.getProperties().put("foo", "bar");
+        final ApiExport pckDeprecation = new ApiExport("a");
+        final DeprecationInfo info = new DeprecationInfo("deprecated");
+        info.setSince("1.0");
+        info.setForRemoval("2030-01-01");
+        info.setMode(DeprecationValidationMode.STRICT);
+        pckDeprecation.getDeprecation().setPackageInfo(info);
+        pckDeprecation.setLibrary("lib");
+        region.add(pckDeprecation);
+        final ApiExport memberDeprecation = new ApiExport("b");
+        memberDeprecation.getDeprecation().addMemberInfo("Foo", new DeprecationInfo("deprecated"));
+        memberDeprecation.getDeprecation().addMemberInfo("Bar", info);
+        memberDeprecation.getProperties().put("x", "y");
+        region.add(memberDeprecation);
+        region.add(new ApiExport("c"));
+
+        final String expected;
+        try (final StringWriter stringWriter = new StringWriter();
+                final JsonWriter writer = Json.createWriter(stringWriter)) {
+            writer.writeArray(regions.toJSONArray());
+            expected = stringWriter.toString();
+        }
+
+        final StringWriter stringWriter = new StringWriter();
+        regions.writeTo(stringWriter);
+        assertEquals(expected, stringWriter.toString());
+        assertEquals(expected, regions.toJSON());
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        regions.writeTo(stream);
+        assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriterKeepsLibraryOnlyExportAsName() throws Exception {
+        final ApiRegions regions = new ApiRegions();
+        final ApiRegion region = new ApiRegion("global");
+        final ApiExport export = new ApiExport("a");
+        export.setLibrary("lib");
+        region.add(export);
+        regions.add(region);
+
+        // an export with only a library is written as its name, the library is not written
+        final String expected = "[{\"name\":\"global\",\"exports\":[\"a\"]}]";
+        assertEquals(expected, regions.toJSONArray().toString());
+        assertEquals(expected, regions.toJSON());
+        assertNull(ApiRegions.parse(regions.toJSON())
+                .getRegionByName("global")
+                .getExportByName("a")
+                .getLibrary());
+    }
+
+    @Test
+    public void testStreamingWriterLeavesWriterOpen() throws Exception {
+        final boolean[] closed = new boolean[1];
+        final StringWriter writer = new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        new ApiRegions().writeTo(writer);
+        assertEquals("[]", writer.toString());
+        assertFalse(closed[0]);
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        final ApiRegions regions = new ApiRegions();
+        final ApiRegion global = new ApiRegion("global");
+        global.setFeatureOrigins(ArtifactId.fromMvnId("f:f1:1"));
+        final ApiExport exp = new ApiExport("a");
+        exp.getDeprecation().setPackageInfo(new DeprecationInfo("deprecated"));
+        global.add(exp);
+        global.getProperties().put("foo", "bar");
+        final ApiRegion internal = new ApiRegion("internal");
+        internal.setFeatureOrigins(ArtifactId.fromMvnId("f:f1:1"));
+        internal.add(new ApiExport("b"));
+        assertTrue(regions.add(global));
+        assertTrue(regions.add(internal));
+
+        final ApiRegions frozen = regions.freeze();
+        assertFalse(regions.isFrozen());
+        assertTrue(frozen.isFrozen());
+        assertSame(frozen, frozen.freeze());
+        assertEquals(regions, frozen);
+        assertEquals(regions.hashCode(), frozen.hashCode());
+        assertEquals(regions.toJSON(), frozen.toJSON());
+
+        final ApiRegion frozenGlobal = frozen.getRegionByName("global");
+        final ApiRegion frozenInternal = frozen.getRegionByName("internal");
+        assertTrue(frozenGlobal.isFrozen());
+        assertSame(frozenGlobal, frozenInternal.getParent());
+        assertNotNull(frozenInternal.getAllExportByName("a"));
+        assertArrayEquals(
+                new ApiRegion[] {frozenGlobal, frozenInternal},
+                frozen.getRegionsByFeature(ArtifactId.fromMvnId("f:f1:1")));
+
+        // changing the original does not change the frozen copy
+        global.add(new ApiExport("c"));
+        assertNull(frozenGlobal.getExportByName("c"));
+        assertNull(frozenInternal.getAllExportByName("c"));
+
+        assertFrozen(() -> frozen.add(new ApiRegion("other")));
+        assertFrozen(() -> frozenGlobal.add(new ApiExport("d")));
+        assertFrozen(() -> frozenGlobal.remove(frozenGlobal.getExportByName("a")));
+        assertFrozen(() -> frozenGlobal.setFeatureOrigins());
+        assertFrozen(() -> frozenGlobal.getProperties().put("foo", "baz"));
+        final ApiExport frozenExp = frozenGlobal.getExportByName("a");
+        assertFrozen(() -> frozenExp.setToggle("toggle"));
+        assertFrozen(() -> frozenExp.getProperties().put("foo", "bar"));
+        assertFrozen(() -> frozenExp.getDeprecation().setPackageInfo(null));
+        assertFrozen(() -> frozenExp.getDeprecation().getPackageInfo().setSince("1.0"));
+    }
+
+    private void assertFrozen(final Runnable r) {
+        try {
+            r.run();
+            fail("Expected frozen object");
+        } catch (final UnsupportedOperationException expected) {
+            // expected
+        }
+    }
 }